@@ -7,27 +7,151 @@ import java.util.*;
 
 abstract class Program {
     abstract Object semantics(Store store);
+    abstract void compile(BytecodeCompiler c);
+    abstract void resolve(Store fstore);
+    // one round of local type inference; true if any local's type changed
+    boolean infer(Store fstore){ return false; }
+    // records the calls, prints and reads of the function in graph
+    void summarize(CallGraph graph){ }
+    // inlining, see Inliner: a copy with the locals renamed, and this
+    // statement with the calls that can be inlined replaced
+    abstract Statement copy(Inliner in);
+    abstract Statement inline(Inliner in);
+    // JVM code, see JvmCompiler
+    void generate(JvmCompiler j){ j.unsupported(this); }
+    // the node in the binary AST format, see AstWriter; only the nodes the
+    // parser builds can be written
+    void write(AstWriter w){ w.unsupported(this); }
 }
 
+// A sequence of statements, kept flat so that executing a suite of any
+// length takes one Java frame.
+
 class Statement extends Program {
 
-   protected Statement stmt1, stmt2;
+   protected Statement [] stmts;
 
    public Statement () { }
 
+   public Statement (List<Statement> stmts) {
+     this . stmts = stmts . toArray (new Statement [0]);
+   }
+
    public Statement (Statement stmt1, Statement stmt2) {
-     this . stmt1 = stmt1;
-     this . stmt2 = stmt2;
+     ArrayList<Statement> list = new ArrayList<Statement>();
+     for (Statement stmt : new Statement [] {stmt1, stmt2}) {
+       if (stmt != null && stmt . getClass () == Statement.class)
+         list . addAll (Arrays . asList (stmt . stmts));
+       else if (stmt != null)
+         list . add (stmt);
+     }
+     this . stmts = list . toArray (new Statement [0]);
    }
 
     public Object semantics(Store store){
-       if(stmt1 != null && stmt2 == null)
-        return stmt1.semantics(store);
-       else if(stmt1 != null && stmt2 != null)
-           stmt1.semantics(store);
-       if(stmt2 != null)
-        return stmt2.semantics(store);
-       return null;
+       Object value = null;
+       for(Statement stmt : stmts)
+           value = stmt.semantics(store);
+       return value;
+    }
+    // the value of a function body whose return type is int, unboxed
+    public int semanticsInt(Store store){
+       if(stmts == null){
+           Object value = semantics(store);
+           if(value instanceof Integer)
+               return (Integer)value;
+           return Specialization.notInt(store, value);
+       }
+       for(int i = 0; i < stmts.length - 1; i++)
+           stmts[i].semantics(store);
+       return stmts[stmts.length - 1].semanticsInt(store);
+    }
+    public void compile(BytecodeCompiler c){
+       for(Statement stmt : stmts)
+           stmt.compile(c);
+    }
+    public void resolve(Store fstore){
+       for(Statement stmt : stmts)
+           stmt.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+       boolean changed = false;
+       if(stmts != null)
+           for(Statement stmt : stmts)
+               changed |= stmt.infer(fstore);
+       return changed;
+    }
+    // constant folding and simplification, see Optimizer; a suite that
+    // folds to a sequence of its own is spliced into this one
+    public Statement fold(Optimizer opt){
+       if(stmts == null)
+           return this;
+       ArrayList<Statement> list = new ArrayList<Statement>();
+       for(Statement stmt : stmts){
+           Statement folded = stmt.fold(opt);
+           if(folded.getClass() == Statement.class)
+               list.addAll(Arrays.asList(folded.stmts));
+           else
+               list.add(folded);
+       }
+       stmts = list.toArray(new Statement[0]);
+       return this;
+    }
+    // the number of statement and expression nodes; a sequence itself
+    // does not count
+    public int nodes(){
+       int n = 0;
+       if(stmts != null)
+           for(Statement stmt : stmts)
+               n += stmt.nodes();
+       return n;
+    }
+    public void summarize(CallGraph graph){
+       if(stmts != null)
+           for(Statement stmt : stmts)
+               stmt.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+       for(Statement stmt : stmts)
+           stmt.generate(j);
+    }
+    void write(AstWriter w){
+       w.node(AstWriter.SEQUENCE);
+       w.varint(stmts.length);
+       for(Statement stmt : stmts)
+           stmt.write(w);
+    }
+    public Statement copy(Inliner in){
+       ArrayList<Statement> list = new ArrayList<Statement>();
+       for(Statement stmt : stmts)
+           list.add(stmt.copy(in));
+       return new Statement(list);
+    }
+    public Statement inline(Inliner in){
+       if(stmts != null)
+           for(int i = 0; i < stmts.length; i++)
+               stmts[i] = stmts[i].inline(in);
+       return this;
+    }
+    // Replaces calls of the function fstore itself in tail position by
+    // TailCall statements: the function body's return of such a call, and
+    // an assignment of such a call to result, the variable the body
+    // returns, as the last statement executed before that return.
+    public Statement tailCalls(Store fstore, String result){
+       if(stmts == null || stmts.length == 0)
+           return this;
+       int last = stmts.length - 1;
+       if(stmts[last] instanceof ReturnStatement){
+           Expression exp = ((ReturnStatement)stmts[last]).exp;
+           if(exp instanceof FunctionCall && ((FunctionCall)exp).id.equals(fstore.id))
+               stmts[last] = new TailCall((FunctionCall)exp);
+           else if(exp instanceof Identifier)
+               result = ((Identifier)exp).id;
+           last--;
+       }
+       if(last >= 0)
+           stmts[last] = stmts[last].tailCalls(fstore, result);
+       return this;
     }
 }
 
@@ -35,6 +159,7 @@ class Assignment extends Statement {
 
    protected Identifier lhs;
    protected Expression rhs;
+   protected byte state;         // see Specialization, if lhs is not int
 
    public Assignment () { }
 
@@ -46,10 +171,85 @@ class Assignment extends Statement {
    public String toString () {
      return "(= " + lhs + " " + rhs + ")";
    }
+    // a local with no static type is self-specializing: while the values
+    // assigned to it are ints it holds them unboxed, see Specialization
     public Object semantics (Store store) {
-        store .  update (lhs.id() , rhs . semantics (store));
+        if(lhs.type == Type.INT)
+            store .  updateInt (lhs.slot , rhs . evalInt (store));
+        else if(state == Specialization.INT){
+            try{
+                store.updateUnboxed(lhs.slot, rhs.executeInt(store));
+            }
+            catch(UnexpectedResult r){
+                state = Specialization.GENERIC;
+                store.update(lhs.slot, r.value);
+            }
+        }
+        else{
+            Object value = rhs . semantics (store);
+            if(state == Specialization.UNINITIALIZED)
+                state = Specialization.of(value);
+            store .  update (lhs.slot , value);
+        }
         return 1;
     }
+    public void compile(BytecodeCompiler c){
+        if(lhs.type == Type.INT && rhs.isRegister()){
+            rhs.register(c, lhs.slot);
+            c.releaseTemporaries();
+            return;
+        }
+        if(lhs.type != Type.INT && rhs instanceof Identifier){
+            c.emit(Opcode.MOVE, lhs.slot, ((Identifier)rhs).slot);
+            return;
+        }
+        if(lhs.type == Type.INT)
+            c.compileInt(rhs);
+        else
+            rhs.compile(c);
+        c.emit(Opcode.STORE, lhs.slot);
+    }
+    public void resolve(Store fstore){
+        lhs.resolve(fstore);
+        rhs.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+        return fstore.assign(lhs.slot, rhs.type(fstore));
+    }
+    public Statement fold(Optimizer opt){
+        rhs = rhs.fold(opt);
+        return this;
+    }
+    public int nodes(){
+        return 1 + lhs.nodes() + rhs.nodes();
+    }
+    public void summarize(CallGraph graph){
+        rhs.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+        if(lhs.type != Type.INT)
+            j.unsupported(this);
+        rhs.generate(j);
+        j.istore(lhs.slot);
+    }
+    void write(AstWriter w){
+        w.node(AstWriter.ASSIGNMENT);
+        w.identifier(lhs.id);
+        rhs.write(w);
+    }
+    public Statement copy(Inliner in){
+        return new Assignment((Identifier)lhs.copy(in), rhs.copy(in));
+    }
+    public Statement inline(Inliner in){
+        rhs = rhs.inline(in);
+        return this;
+    }
+    public Statement tailCalls(Store fstore, String result){
+        if(lhs.id.equals(result) && rhs instanceof FunctionCall
+           && ((FunctionCall)rhs).id.equals(fstore.id))
+            return new TailCall((FunctionCall)rhs);
+        return this;
+    }
 }
 
 class IfStatement extends Statement {
@@ -77,7 +277,7 @@ class IfStatement extends Statement {
        return "(if " + test + " " + thenStmt + elseStmt + ")";
    }
     public Object semantics(Store store){
-      if((int)test.semantics(store) != 0){
+      if(test.test(store)){
           return thenStmt.semantics(store);
       }
       else if(elseStmt != null){
@@ -85,11 +285,99 @@ class IfStatement extends Statement {
         }
       return 0;
     }
+    public void compile(BytecodeCompiler c){
+      ArrayList<Integer> toElse = new ArrayList<Integer>();
+      test.compileTest(c, false, toElse);
+      thenStmt.compile(c);
+      if(elseStmt != null){
+          int toEnd = c.emitJump(Opcode.JUMP);
+          c.patch(toElse);
+          elseStmt.compile(c);
+          c.patch(toEnd);
+      }
+      else
+          c.patch(toElse);
+    }
+    public void resolve(Store fstore){
+      test.resolve(fstore);
+      thenStmt.resolve(fstore);
+      if(elseStmt != null)
+          elseStmt.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+      boolean changed = thenStmt.infer(fstore);
+      if(elseStmt != null)
+          changed |= elseStmt.infer(fstore);
+      return changed;
+    }
+    // a constant test leaves only the branch it selects
+    public Statement fold(Optimizer opt){
+      test = opt.test(test.fold(opt));
+      thenStmt = thenStmt.fold(opt);
+      if(elseStmt != null)
+          elseStmt = elseStmt.fold(opt);
+      if(test instanceof IntValue){
+          if(((IntValue)test).intValue != 0)
+              return thenStmt;
+          return (elseStmt != null)? elseStmt : new Statement(new ArrayList<Statement>());
+      }
+      return this;
+    }
+    public int nodes(){
+      return 1 + test.nodes() + thenStmt.nodes()
+               + ((elseStmt != null)? elseStmt.nodes() : 0);
+    }
+    public void summarize(CallGraph graph){
+      test.summarize(graph);
+      thenStmt.summarize(graph);
+      if(elseStmt != null)
+          elseStmt.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+      ArrayList<Integer> toElse = new ArrayList<Integer>();
+      test.generateTest(j, false, toElse);
+      thenStmt.generate(j);
+      if(elseStmt == null)
+          j.patch(toElse);
+      else{
+          int end = j.emitJump(JvmCompiler.GOTO, 0);
+          j.patch(toElse);
+          elseStmt.generate(j);
+          j.patch(end);
+      }
+    }
+    void write(AstWriter w){
+      w.node(elseStmt == null? AstWriter.IF : AstWriter.IF_ELSE);
+      test.write(w);
+      thenStmt.write(w);
+      if(elseStmt != null)
+          elseStmt.write(w);
+    }
+    public Statement copy(Inliner in){
+      if(elseStmt == null)
+          return new IfStatement(test.copy(in), thenStmt.copy(in));
+      return new IfStatement(test.copy(in), thenStmt.copy(in), elseStmt.copy(in));
+    }
+    public Statement inline(Inliner in){
+      test = test.inline(in);
+      thenStmt = thenStmt.inline(in);
+      if(elseStmt != null)
+          elseStmt = elseStmt.inline(in);
+      return this;
+    }
+    public Statement tailCalls(Store fstore, String result){
+      thenStmt = thenStmt.tailCalls(fstore, result);
+      if(elseStmt != null)
+          elseStmt = elseStmt.tailCalls(fstore, result);
+      return this;
+    }
 }
 
 class PrintStatement extends Statement {
 
    protected Expression exp;
+   protected boolean intValued;
+   protected byte state;         // see Specialization, if not intValued
 
    public PrintStatement () { }
 
@@ -101,9 +389,67 @@ class PrintStatement extends Statement {
      return "(print " + exp + ")";
    }
     public Object semantics(Store store){
-       System.out.println(exp.semantics(store));
+       Output output = store.interpreter.output;
+       if(intValued)
+           output.println(exp.evalInt(store));
+       else if(state == Specialization.INT){
+           try{
+               output.println(exp.executeInt(store));
+           }
+           catch(UnexpectedResult r){
+               state = Specialization.GENERIC;
+               output.println(r.value);
+           }
+       }
+       else{
+           Object value = exp.semantics(store);
+           if(state == Specialization.UNINITIALIZED)
+               state = Specialization.of(value);
+           output.println(value);
+       }
        return null;
     }
+    public void compile(BytecodeCompiler c){
+       exp.compile(c);
+       c.emit(Opcode.PRINT);
+    }
+    public void resolve(Store fstore){
+       exp.resolve(fstore);
+       intValued = exp.type(fstore) == Type.INT;
+    }
+    public boolean infer(Store fstore){
+       return false;
+    }
+    public Statement fold(Optimizer opt){
+       exp = exp.fold(opt);
+       return this;
+    }
+    public int nodes(){
+       return 1 + exp.nodes();
+    }
+    public void summarize(CallGraph graph){
+       graph.io();
+       exp.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+       if(!intValued)
+           j.unsupported(this);
+       j.emit(JvmCompiler.ALOAD_0, 1);
+       j.getfield("Interpreter", "output", "LOutput;");
+       exp.generate(j);
+       j.invoke(JvmCompiler.INVOKEVIRTUAL, "Output", "println", "(I)V", -2);
+    }
+    void write(AstWriter w){
+       w.node(AstWriter.PRINT);
+       exp.write(w);
+    }
+    public Statement copy(Inliner in){
+       return new PrintStatement(exp.copy(in));
+    }
+    public Statement inline(Inliner in){
+       exp = exp.inline(in);
+       return this;
+    }
 }
 
 class ReturnStatement extends Statement {
@@ -119,9 +465,54 @@ class ReturnStatement extends Statement {
    public String toString () {
      return "(return " + exp + ")";
    }
+    // after a TailCall the body has handed over to the activation in
+    // store.next, whose run supplies the value; the variables of this one
+    // may never have been set
     public Object semantics(Store store){
+        if(store.next != null)
+            return null;
         return exp.semantics(store);
     }
+    public int semanticsInt(Store store){
+        if(store.next != null)
+            return 0;
+        return exp.evalInt(store);
+    }
+    public void compile(BytecodeCompiler c){
+        exp.compile(c);
+        c.emit(Opcode.RETURN);
+    }
+    public void resolve(Store fstore){
+        exp.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+        return false;
+    }
+    public Statement fold(Optimizer opt){
+        exp = exp.fold(opt);
+        return this;
+    }
+    public int nodes(){
+        return 1 + exp.nodes();
+    }
+    public void summarize(CallGraph graph){
+        exp.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+        exp.generate(j);
+        j.ireturn();
+    }
+    void write(AstWriter w){
+        w.node(AstWriter.RETURN);
+        exp.write(w);
+    }
+    public Statement copy(Inliner in){
+        return new ReturnStatement(exp.copy(in));
+    }
+    public Statement inline(Inliner in){
+        exp = exp.inline(in);
+        return this;
+    }
 }
 
 class WhileStatement extends Statement {
@@ -139,22 +530,209 @@ class WhileStatement extends Statement {
   public String toString () {
      return "(while " + test + " " + body + ")";
    }
+    // each iteration is a step against the run's limit; under Tiers the
+    // iterations are counted, and once there are enough the rest of the
+    // loop may run as JVM code
     public Object semantics(Store store){
-      if((int)test.semantics(store) != 0){
+      Interpreter interpreter = store.interpreter;
+      Tiers tiers = interpreter.tiers;
+      if(tiers == null){
+          while(test.test(store)){
+              body.semantics(store);
+              interpreter.step();
+          }
+          return null;
+      }
+      for(int n = 1; test.test(store); n++){
           body.semantics(store);
-          return this.semantics(store);
+          interpreter.step();
+          if(n == tiers.osr && tiers.loop(this, store))
+              break;
       }
       return null;
     }
+    public void compile(BytecodeCompiler c){
+      int top = c.position();
+      ArrayList<Integer> toEnd = new ArrayList<Integer>();
+      test.compileTest(c, false, toEnd);
+      body.compile(c);
+      c.emit(Opcode.LOOP, top);
+      c.patch(toEnd);
+    }
+    public void resolve(Store fstore){
+      test.resolve(fstore);
+      body.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+      return body.infer(fstore);
+    }
+    // a loop whose test is constantly 0 never runs
+    public Statement fold(Optimizer opt){
+      test = opt.test(test.fold(opt));
+      body = body.fold(opt);
+      if(test instanceof IntValue && ((IntValue)test).intValue == 0)
+          return new Statement(new ArrayList<Statement>());
+      return this;
+    }
+    public int nodes(){
+      return 1 + test.nodes() + body.nodes();
+    }
+    public void summarize(CallGraph graph){
+      test.summarize(graph);
+      body.summarize(graph);
+    }
+    public void generate(JvmCompiler j){
+      int top = j.pc();
+      ArrayList<Integer> exits = new ArrayList<Integer>();
+      test.generateTest(j, false, exits);
+      body.generate(j);
+      j.step();
+      j.jump(JvmCompiler.GOTO, top);
+      j.patch(exits);
+    }
+    void write(AstWriter w){
+      w.node(AstWriter.WHILE);
+      test.write(w);
+      body.write(w);
+    }
+    public Statement copy(Inliner in){
+      return new WhileStatement(test.copy(in), body.copy(in));
+    }
+    public Statement inline(Inliner in){
+      test = test.inline(in);
+      body = body.inline(in);
+      return this;
+    }
+}
+
+// A call of the enclosing function in tail position.  It binds the
+// arguments into a fresh activation and leaves it in store.next; the
+// FunctionCall running the body then continues with that activation in
+// place of the current one, so the recursion runs in constant stack space.
+
+class TailCall extends Statement {
+
+  protected FunctionCall call;
+
+  public TailCall (FunctionCall call) {
+    this . call = call;
+  }
+
+  public String toString () {
+    return "(tail " + call + ")";
+  }
+    public Object semantics(Store store){
+      Store callee = call.callee(store);
+      Store next = store.interpreter.acquire(callee);
+      call.bind(next, store);
+      store.next = next;
+      return null;
+    }
+    public int semanticsInt(Store store){
+      semantics(store);
+      return 0;
+    }
+    public void compile(BytecodeCompiler c){
+      int argumentCount = call.compileArguments(c);
+      c.function(call.id, argumentCount);
+      c.emit(Opcode.TAIL_CALL, argumentCount);
+    }
+    public void resolve(Store fstore){
+      call.resolve(fstore);
+    }
+    public boolean infer(Store fstore){
+      return false;
+    }
+    public Statement fold(Optimizer opt){
+      call.fold(opt);
+      return this;
+    }
+    public int nodes(){
+      return call.nodes();
+    }
+    public void summarize(CallGraph graph){
+      call.summarize(graph);
+    }
+    // the arguments go to the parameters, and the body starts over
+    public void generate(JvmCompiler j){
+      int n = (call.actualParameters == null)? 0 : call.actualParameters.size();
+      j.callee(call.id, n);
+      for(int i = 0; i < n; i++)
+          call.actualParameters.get(i).generate(j);
+      for(int i = n - 1; i >= 0; i--)
+          j.istore(i);
+      j.step();
+      j.jump(JvmCompiler.GOTO, j.start());
+    }
+    public Statement copy(Inliner in){
+      return new TailCall((FunctionCall)call.copy(in));
+    }
+    public Statement inline(Inliner in){
+      return this;
+    }
 }
 
+// Expressions whose static type is int are evaluated through evalInt,
+// which returns the value unboxed; semantics boxes it only where a value
+// must be an Object, as when it enters a list.
+
 abstract class Expression {
     abstract Object semantics(Store store);
+    abstract void compile(BytecodeCompiler c);
+    abstract Type type(Store fstore);
+    void resolve(Store fstore){ }
+    int evalInt(Store store){
+        Object value = semantics(store);
+        if(value instanceof Integer)
+            return (Integer)value;
+        return Specialization.notInt(store, value);
+    }
+    // the value as an int, or UnexpectedResult carrying it if it is not
+    // one; see Specialization
+    int executeInt(Store store) throws UnexpectedResult{
+        Object value = semantics(store);
+        if(value instanceof Integer)
+            return (Integer)value;
+        throw new UnexpectedResult(value);
+    }
+    // constant folding and simplification, see Optimizer; returns the
+    // expression to use in place of this one
+    Expression fold(Optimizer opt){ return this; }
+    int nodes(){ return 1; }
+    void summarize(CallGraph graph){ }
+    // inlining, see Inliner; leaves and constants are shared by copies
+    Expression copy(Inliner in){ return this; }
+    Expression inline(Inliner in){ return this; }
+    // the node in the binary AST format, see AstWriter
+    void write(AstWriter w){ w.unsupported(this); }
+    // JVM code, see JvmCompiler; the test jumps like compileTest's
+    void generate(JvmCompiler j){ j.unsupported(this); }
+    void generateTest(JvmCompiler j, boolean when, ArrayList<Integer> jumps){
+        generate(j);
+        jumps.add(j.emitJump(when? JvmCompiler.IFNE : JvmCompiler.IFEQ, 1));
+    }
+    // true if the value is an int that register instructions compute, see
+    // BytecodeCompiler; register computes it into the register target, or
+    // a temporary if target is -1, and returns the register holding it
+    boolean isRegister(){ return false; }
+    int register(BytecodeCompiler c, int target){ return -1; }
+    // true if the value is always 0 or 1
+    boolean isBoolean(){ return false; }
+    // the value as the test of an if or while
+    boolean test(Store store){ return evalInt(store) != 0; }
+    // emits code that jumps when the test is when, adding the jumps to
+    // jumps for the caller to patch, and falls through otherwise
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+        c.compileInt(this);
+        jumps.add(c.emitJump(when? Opcode.JUMP_IF_NOT_0 : Opcode.JUMP_IF_0));
+    }
 }
 
 class Identifier extends Expression {
 
   protected String id;
+  protected int slot = -1;      // frame slot, set by resolve
+  protected Type type;          // inferred type, set by resolve
 
   public Identifier () { }
 
@@ -167,7 +745,53 @@ class Identifier extends Expression {
   }
   public String id(){return id;}
     public Object semantics(Store store){
-        return store.get(id);
+        if(type == Type.INT)
+            return store.getInt(slot);
+        return store.value(slot);
+    }
+    public int evalInt(Store store){
+        if(type == Type.INT)
+            return store.getInt(slot);
+        Object value = store.get(slot);
+        if(value == Store.UNBOXED)
+            return store.getInt(slot);
+        if(value instanceof Integer)
+            return (Integer)value;
+        return Specialization.notInt(store, value);
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+        if(type == Type.INT)
+            return store.getInt(slot);
+        Object value = store.get(slot);
+        if(value == Store.UNBOXED)
+            return store.getInt(slot);
+        if(value instanceof Integer)
+            return (Integer)value;
+        throw new UnexpectedResult(value);
+    }
+    public void compile(BytecodeCompiler c){
+        c.emit(Opcode.LOAD, slot);
+    }
+    boolean isRegister(){ return type == Type.INT; }
+    int register(BytecodeCompiler c, int target){ return c.move(slot, target); }
+    public void resolve(Store fstore){
+        slot = fstore.slot(id);
+        type = fstore.type(slot);
+    }
+    public Type type(Store fstore){
+        return fstore.type(fstore.slot(id));
+    }
+    void generate(JvmCompiler j){
+        if(type != Type.INT)
+            j.unsupported(this);
+        j.iload(slot);
+    }
+    public Expression copy(Inliner in){
+        return new Identifier(in.rename(id));
+    }
+    void write(AstWriter w){
+        w.node(AstWriter.IDENTIFIER);
+        w.identifier(id);
     }
 }
 
@@ -191,6 +815,27 @@ class IntValue extends Expression {
     public Object semantics(Store store){
       return intValue;
     }
+    public int evalInt(Store store){
+      return intValue;
+    }
+    int executeInt(Store store){
+      return intValue;
+    }
+    public Type type(Store fstore){
+      return Type.INT;
+    }
+    public void compile(BytecodeCompiler c){
+      c.emit(Opcode.PUSH_INT, c.intConstant(intValue));
+    }
+    boolean isRegister(){ return true; }
+    int register(BytecodeCompiler c, int target){ return c.constant(intValue, target); }
+    void generate(JvmCompiler j){
+      j.iconst(intValue);
+    }
+    void write(AstWriter w){
+      w.node(AstWriter.INTEGER);
+      w.signed(intValue);
+    }
 }
 
 class Input extends Expression {
@@ -201,9 +846,29 @@ class Input extends Expression {
     return "(input)";
   }
     public Object semantics(Store store){
-      System.out.print("Input>>");
-        Scanner myObj = new Scanner(System.in);
-        return myObj.nextInt();
+      return evalInt(store);
+    }
+    public int evalInt(Store store){
+      return store.interpreter.readInt();
+    }
+    int executeInt(Store store){
+      return evalInt(store);
+    }
+    void summarize(CallGraph graph){
+      graph.io();
+    }
+    public Type type(Store fstore){
+      return Type.INT;
+    }
+    public void compile(BytecodeCompiler c){
+        c.emit(Opcode.INPUT);
+    }
+    void generate(JvmCompiler j){
+        j.emit(JvmCompiler.ALOAD_0, 1);
+        j.invoke(JvmCompiler.INVOKEVIRTUAL, "Interpreter", "readInt", "()I", 0);
+    }
+    void write(AstWriter w){
+        w.node(AstWriter.INPUT);
     }
 }
 
@@ -213,11 +878,24 @@ class MicroPythonList extends Expression {
     return "(MicroPythonList)";
   }
   public Object semantics(Store store){
-      return new Vector<Object>();
+      return new PersistentList();
+  }
+  public Type type(Store fstore){
+      return Type.MICRO_PYTHON_LIST;
+  }
+  public void compile(BytecodeCompiler c){
+      c.emit(Opcode.NEW_LIST);
+  }
+  void write(AstWriter w){
+      w.node(AstWriter.LIST);
   }
 }
 
-class Unary extends Expression {
+// Unary and binary operators are built by Unary.create and Binary.create as
+// one node class per operator, so that evaluating an operator is a single
+// virtual call with no dispatch on its name.
+
+abstract class Unary extends Expression {
 
   protected String op;
   protected Expression exp;
@@ -229,38 +907,173 @@ class Unary extends Expression {
     this . exp = exp;
   }
 
+  public static Expression create (String op, Expression exp) {
+    switch (op) {
+      case "-"    : return new NegNode (exp);
+      case "not"  : return new NotNode (exp);
+      case "head" : return new HeadNode (exp);
+      case "tail" : return new TailNode (exp);
+      case "null" : return new NullNode (exp);
+      default     : return exp;                 // unary +
+    }
+  }
+
   public String toString () {
     return "(" + op + " " + exp + ")";
   }
     public Object semantics(Store store){
-        if(op == "-"){
-            return -1*(int)exp.semantics(store);
-        }
-        else if(op == "head"){
-            //Identifier id = (Identifier) exp;
-            return ((Vector<Object>)(exp.semantics(store))).firstElement();
-        }
-        else if(op == "tail"){
-            //Identifier id = (Identifier) exp;
-            Vector<Object> v = new Vector<Object>();
-            v.addAll((Vector<Object>)(exp.semantics(store)));
-            v.remove(0);
-            return v;
-        }
-        else if(op == "null"){
-            Identifier id = (Identifier) exp;
-            return (((Vector<Object>)(exp.semantics(store))).isEmpty())? 1:0;
-        }
-        else if(op == "not"){
-            return ((int)exp.semantics(store) == 0)? 1:0;
+        return evalInt(store);
+    }
+    public void compile(BytecodeCompiler c){
+        compileOperand(c);
+        c.emit(opcode());
+    }
+    void compileOperand(BytecodeCompiler c){
+        c.compileInt(exp);
+    }
+    public void resolve(Store fstore){
+        exp.resolve(fstore);
+    }
+    public Type type(Store fstore){
+        return Type.INT;
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+        return evalInt(store);
+    }
+    public Expression fold(Optimizer opt){
+        exp = exp.fold(opt);
+        if(exp instanceof IntValue)
+            return opt.constant(this);
+        return simplify(opt);
+    }
+    // an equivalent simpler expression, once the operand is folded
+    Expression simplify(Optimizer opt){ return this; }
+    int nodes(){ return 1 + exp.nodes(); }
+    void summarize(CallGraph graph){ exp.summarize(graph); }
+    Expression copy(Inliner in){ return create(op, exp.copy(in)); }
+    void write(AstWriter w){
+        w.node(AstWriter.UNARY);
+        w.operator(op);
+        exp.write(w);
+    }
+    Expression inline(Inliner in){
+        exp = exp.inline(in);
+        return this;
+    }
+    abstract int opcode();
+}
+
+class NegNode extends Unary {
+    public NegNode (Expression exp) { super ("-", exp); }
+    public int evalInt(Store store){
+        return -exp.evalInt(store);
+    }
+    // - - e is e, even for Integer.MIN_VALUE
+    Expression simplify(Optimizer opt){
+        if(exp instanceof NegNode && opt.isInt(((NegNode)exp).exp))
+            return ((NegNode)exp).exp;
+        return this;
+    }
+    int opcode(){ return Opcode.NEG; }
+    void generate(JvmCompiler j){
+        exp.generate(j);
+        j.emit(JvmCompiler.INEG, 0);
+    }
+}
+
+class NotNode extends Unary {
+    public NotNode (Expression exp) { super ("not", exp); }
+    public int evalInt(Store store){
+        return exp.test(store)? 0:1;
+    }
+    boolean test(Store store){
+        return !exp.test(store);
+    }
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+        exp.compileTest(c, !when, jumps);
+    }
+    // not not e is e only when e is already 0 or 1
+    Expression simplify(Optimizer opt){
+        if(exp instanceof NotNode && ((NotNode)exp).exp.isBoolean())
+            return ((NotNode)exp).exp;
+        return this;
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.NOT; }
+    void generate(JvmCompiler j){
+        j.booleanValue(this);
+    }
+    void generateTest(JvmCompiler j, boolean when, ArrayList<Integer> jumps){
+        exp.generateTest(j, !when, jumps);
+    }
+}
+
+class NullNode extends Unary {
+    public NullNode (Expression exp) { super ("null", exp); }
+    public int evalInt(Store store){
+        return Specialization.list(store, exp.semantics(store)).isEmpty()? 1:0;
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.NULL; }
+    void compileOperand(BytecodeCompiler c){
+        c.compileList(exp);
+    }
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+        c.compileList(exp);
+        jumps.add(c.emitJump(when? Opcode.JUMP_IF_EMPTY : Opcode.JUMP_IF_NOT_EMPTY));
+    }
+}
+
+class HeadNode extends Unary {
+    public HeadNode (Expression exp) { super ("head", exp); }
+    public Object semantics(Store store){
+        return Specialization.nonEmpty(store, exp.semantics(store), "head").head();
+    }
+    public int evalInt(Store store){
+        try{
+            return executeInt(store);
         }
-        else{
-            return exp.semantics(store);
+        catch(UnexpectedResult r){
+            return Specialization.notInt(store, r.value);
         }
-  }
+    }
+    // an int element comes straight from a buffer of ints, unboxed
+    int executeInt(Store store) throws UnexpectedResult{
+        PersistentList list = Specialization.nonEmpty(store, exp.semantics(store), "head");
+        if(list.headIsInt())
+            return list.headInt();
+        throw new UnexpectedResult(list.head());
+    }
+    public Type type(Store fstore){
+        return Type.ANY;
+    }
+    int opcode(){ return Opcode.HEAD; }
+    void compileOperand(BytecodeCompiler c){
+        c.compileList(exp);
+    }
+}
+
+class TailNode extends Unary {
+    public TailNode (Expression exp) { super ("tail", exp); }
+    public Object semantics(Store store){
+        return Specialization.nonEmpty(store, exp.semantics(store), "tail").tail();
+    }
+    public int evalInt(Store store){
+        return Specialization.notInt(store, semantics(store));
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+        throw new UnexpectedResult(semantics(store));
+    }
+    public Type type(Store fstore){
+        return Type.MICRO_PYTHON_LIST;
+    }
+    int opcode(){ return Opcode.TAIL; }
+    void compileOperand(BytecodeCompiler c){
+        c.compileList(exp);
+    }
 }
 
-class Binary extends Expression {
+abstract class Binary extends Expression {
 
   protected String op;
   protected Expression exp1, exp2;
@@ -273,63 +1086,487 @@ class Binary extends Expression {
     this . exp2 = exp2;
   }
 
+  public static Binary create (String op, Expression exp1, Expression exp2) {
+    switch (op) {
+      case "+"    : return new AddNode (exp1, exp2);
+      case "-"    : return new SubNode (exp1, exp2);
+      case "*"    : return new MulNode (exp1, exp2);
+      case "//"   : return new DivNode (exp1, exp2);
+      case "=="   : return new EqNode (exp1, exp2);
+      case "!="   : return new NeNode (exp1, exp2);
+      case "<"    : return new LtNode (exp1, exp2);
+      case "<="   : return new LeNode (exp1, exp2);
+      case ">"    : return new GtNode (exp1, exp2);
+      case ">="   : return new GeNode (exp1, exp2);
+      case "and"  : return new AndNode (exp1, exp2);
+      case "or"   : return new OrNode (exp1, exp2);
+      case "cons" : return new ConsNode (exp1, exp2);
+      default     : throw new IllegalArgumentException ("Unknown operator " + op);
+    }
+  }
+
   public String toString () {
     return "(" + op + " " + exp1 + " " + exp2 + ")";
   }
     public Object semantics(Store store){
-      if(Objects.equals(op, "+")){
-          return (int)exp1.semantics(store) + (int)exp2.semantics(store);
+      return evalInt(store);
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+      return evalInt(store);
+    }
+    public void compile(BytecodeCompiler c){
+      c.compileInt(exp1);
+      c.compileInt(exp2);
+      c.emit(opcode());
+    }
+    public void resolve(Store fstore){
+      exp1.resolve(fstore);
+      exp2.resolve(fstore);
+    }
+    public Type type(Store fstore){
+      return Type.INT;
+    }
+    public Expression fold(Optimizer opt){
+      exp1 = exp1.fold(opt);
+      exp2 = exp2.fold(opt);
+      if(exp1 instanceof IntValue && exp2 instanceof IntValue)
+          return opt.constant(this);
+      return simplify(opt);
+    }
+    // an equivalent simpler expression, once the operands are folded
+    Expression simplify(Optimizer opt){ return this; }
+    int nodes(){ return 1 + exp1.nodes() + exp2.nodes(); }
+    void summarize(CallGraph graph){
+      exp1.summarize(graph);
+      exp2.summarize(graph);
+    }
+    // the JVM instruction of an int operator, and the if_icmp instruction
+    // that jumps when a comparison holds; 0 if there is none
+    int jvmOpcode(){ return 0; }
+    int jvmCompare(){ return 0; }
+    void generate(JvmCompiler j){
+      if(isBoolean()){
+          j.booleanValue(this);
+          return;
       }
-      else if(Objects.equals(op, "-")){
-          return (int)exp1.semantics(store) - (int)exp2.semantics(store);
+      if(jvmOpcode() == 0)
+          j.unsupported(this);
+      exp1.generate(j);
+      exp2.generate(j);
+      j.emit(jvmOpcode(), -1);
+    }
+    void generateTest(JvmCompiler j, boolean when, ArrayList<Integer> jumps){
+      if(jvmCompare() == 0){
+          if(isBoolean())
+              j.unsupported(this);
+          super.generateTest(j, when, jumps);
+          return;
       }
-      else if(Objects.equals(op, "*")){
-          return (int)exp1.semantics(store) * (int)exp2.semantics(store);
+      exp1.generate(j);
+      exp2.generate(j);
+      jumps.add(j.emitJump(when? jvmCompare() : JvmCompiler.negate(jvmCompare()), 2));
+    }
+    Expression copy(Inliner in){ return create(op, exp1.copy(in), exp2.copy(in)); }
+    // the register instruction of an int operator, and the jump of a
+    // comparison on registers when it holds or fails; 0 if there is none
+    int registerOpcode(){ return 0; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){ return -1; }
+    boolean isRegister(){
+      return registerOpcode() != 0 && exp1.isRegister() && exp2.isRegister();
+    }
+    int register(BytecodeCompiler c, int target){
+      int a = exp1.register(c, -1);
+      int b = exp2.register(c, -1);
+      return c.operation(registerOpcode(), a, b, target);
+    }
+    // an int comparison of operands in registers is one jump
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+      if(jvmCompare() == 0 || !exp1.isRegister() || !exp2.isRegister()){
+          super.compileTest(c, when, jumps);
+          return;
       }
-      else if(Objects.equals(op, "/")){
-          return (int)exp1.semantics(store)/(int)exp2.semantics(store);
+      int a = exp1.register(c, -1);
+      int b = exp2.register(c, -1);
+      jumps.add(jump(c, when, a, b));
+    }
+    void write(AstWriter w){
+      w.node(AstWriter.BINARY);
+      w.operator(op);
+      exp1.write(w);
+      exp2.write(w);
+    }
+    Expression inline(Inliner in){
+      exp1 = exp1.inline(in);
+      exp2 = exp2.inline(in);
+      return this;
+    }
+    int opcode(){ return -1; }
+}
+
+class AddNode extends Binary {
+    public AddNode (Expression exp1, Expression exp2) { super ("+", exp1, exp2); }
+    public int evalInt(Store store){
+      return exp1.evalInt(store) + exp2.evalInt(store);
+    }
+    Expression simplify(Optimizer opt){
+      if(Optimizer.is(exp2, 0) && opt.isInt(exp1))
+          return exp1;
+      if(Optimizer.is(exp1, 0) && opt.isInt(exp2))
+          return exp2;
+      return this;
+    }
+    int opcode(){ return Opcode.ADD; }
+    int registerOpcode(){ return Opcode.ADD_R; }
+    int jvmOpcode(){ return JvmCompiler.IADD; }
+}
+
+class SubNode extends Binary {
+    public SubNode (Expression exp1, Expression exp2) { super ("-", exp1, exp2); }
+    public int evalInt(Store store){
+      return exp1.evalInt(store) - exp2.evalInt(store);
+    }
+    Expression simplify(Optimizer opt){
+      if(Optimizer.is(exp2, 0) && opt.isInt(exp1))
+          return exp1;
+      return this;
+    }
+    int opcode(){ return Opcode.SUB; }
+    int registerOpcode(){ return Opcode.SUB_R; }
+    int jvmOpcode(){ return JvmCompiler.ISUB; }
+}
+
+class MulNode extends Binary {
+    public MulNode (Expression exp1, Expression exp2) { super ("*", exp1, exp2); }
+    public int evalInt(Store store){
+      return exp1.evalInt(store) * exp2.evalInt(store);
+    }
+    Expression simplify(Optimizer opt){
+      if(Optimizer.is(exp2, 1) && opt.isInt(exp1))
+          return exp1;
+      if(Optimizer.is(exp1, 1) && opt.isInt(exp2))
+          return exp2;
+      return this;
+    }
+    int opcode(){ return Opcode.MUL; }
+    int registerOpcode(){ return Opcode.MUL_R; }
+    int jvmOpcode(){ return JvmCompiler.IMUL; }
+}
+
+class DivNode extends Binary {
+    public DivNode (Expression exp1, Expression exp2) { super ("//", exp1, exp2); }
+    public int evalInt(Store store){
+      int a = exp1.evalInt(store), b = exp2.evalInt(store);
+      if(b == 0)
+          Interpreter.error(store, "division by zero");
+      return a / b;
+    }
+    Expression simplify(Optimizer opt){
+      if(Optimizer.is(exp2, 1) && opt.isInt(exp1))
+          return exp1;
+      return this;
+    }
+    int opcode(){ return Opcode.DIV; }
+    int registerOpcode(){ return Opcode.DIV_R; }
+    void generate(JvmCompiler j){
+      j.emit(JvmCompiler.ALOAD_0, 1);
+      exp1.generate(j);
+      exp2.generate(j);
+      j.invoke(JvmCompiler.INVOKEVIRTUAL, "Interpreter", "divide", "(II)I", -2);
+    }
+}
+
+class EqNode extends Binary {
+    protected boolean intOperands;        // both operands statically int
+    protected byte state;                 // see Specialization, if not
+    public EqNode (Expression exp1, Expression exp2) { super ("==", exp1, exp2); }
+    protected EqNode (String op, Expression exp1, Expression exp2) { super (op, exp1, exp2); }
+    public int evalInt(Store store){
+      return equal(store)? 1:0;
+    }
+    boolean test(Store store){
+      return equal(store);
+    }
+    // without static int operands the node specializes to the ints it
+    // first sees, see Specialization
+    protected boolean equal(Store store){
+      if(intOperands){
+          return exp1.evalInt(store) == exp2.evalInt(store);
       }
-      else if(Objects.equals(op, "==")){
-          if(exp1.semantics(store) == exp2.semantics(store)){return 1;}
-          else{return 0;}
+      if(state == Specialization.INT){
+          int i1;
+          try{
+              i1 = exp1.executeInt(store);
+          }
+          catch(UnexpectedResult r){
+              state = Specialization.GENERIC;
+              return equal(r.value, exp2.semantics(store));
+          }
+          try{
+              return i1 == exp2.executeInt(store);
+          }
+          catch(UnexpectedResult r){
+              state = Specialization.GENERIC;
+              return equal(i1, r.value);
+          }
       }
-      else if(Objects.equals(op, ">=")){
-          return ((int)exp1.semantics(store) >= (int)exp2.semantics(store))? 1:0;
+      Object v1 = exp1.semantics(store), v2 = exp2.semantics(store);
+      if(state == Specialization.UNINITIALIZED)
+          state = (Specialization.of(v1) == Specialization.INT)?
+                  Specialization.of(v2) : Specialization.GENERIC;
+      return equal(v1, v2);
+    }
+    static boolean equal(Object v1, Object v2){
+      if(v1 instanceof Integer && v2 instanceof Integer){
+          return (int)v1 == (int)v2;
       }
-      else if(Objects.equals(op, "<=")){
-          return ((int)exp1.semantics(store) <= (int)exp2.semantics(store))? 1:0;
+      return v1 == v2;
+    }
+    public void resolve(Store fstore){
+      super.resolve(fstore);
+      intOperands = exp1.type(fstore) == Type.INT && exp2.type(fstore) == Type.INT;
+    }
+    boolean isBoolean(){ return true; }
+    // any two values may be compared
+    public void compile(BytecodeCompiler c){
+      exp1.compile(c);
+      exp2.compile(c);
+      c.emit(opcode());
+    }
+    int opcode(){ return Opcode.EQ; }
+    int jvmCompare(){ return intOperands? JvmCompiler.IF_ICMPEQ : 0; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return c.emitJump(when? Opcode.JUMP_EQ : Opcode.JUMP_NE, a, b);
+    }
+}
+
+class NeNode extends EqNode {
+    public NeNode (Expression exp1, Expression exp2) { super ("!=", exp1, exp2); }
+    public int evalInt(Store store){
+      return equal(store)? 0:1;
+    }
+    boolean test(Store store){
+      return !equal(store);
+    }
+    int opcode(){ return Opcode.NE; }
+    int jvmCompare(){ return intOperands? JvmCompiler.IF_ICMPNE : 0; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return c.emitJump(when? Opcode.JUMP_NE : Opcode.JUMP_EQ, a, b);
+    }
+}
+
+class LtNode extends Binary {
+    public LtNode (Expression exp1, Expression exp2) { super ("<", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.evalInt(store) < exp2.evalInt(store);
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.LT; }
+    int jvmCompare(){ return JvmCompiler.IF_ICMPLT; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return when? c.emitJump(Opcode.JUMP_LT, a, b) : c.emitJump(Opcode.JUMP_LE, b, a);
+    }
+}
+
+class LeNode extends Binary {
+    public LeNode (Expression exp1, Expression exp2) { super ("<=", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.evalInt(store) <= exp2.evalInt(store);
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.LE; }
+    int jvmCompare(){ return JvmCompiler.IF_ICMPLE; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return when? c.emitJump(Opcode.JUMP_LE, a, b) : c.emitJump(Opcode.JUMP_LT, b, a);
+    }
+}
+
+class GtNode extends Binary {
+    public GtNode (Expression exp1, Expression exp2) { super (">", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.evalInt(store) > exp2.evalInt(store);
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.GT; }
+    int jvmCompare(){ return JvmCompiler.IF_ICMPGT; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return when? c.emitJump(Opcode.JUMP_LT, b, a) : c.emitJump(Opcode.JUMP_LE, a, b);
+    }
+}
+
+class GeNode extends Binary {
+    public GeNode (Expression exp1, Expression exp2) { super (">=", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.evalInt(store) >= exp2.evalInt(store);
+    }
+    boolean isBoolean(){ return true; }
+    int opcode(){ return Opcode.GE; }
+    int jvmCompare(){ return JvmCompiler.IF_ICMPGE; }
+    int jump(BytecodeCompiler c, boolean when, int a, int b){
+      return when? c.emitJump(Opcode.JUMP_LE, b, a) : c.emitJump(Opcode.JUMP_LT, a, b);
+    }
+}
+
+// and, or and not are control flow: as the test of an if or while they
+// branch on each operand in turn and never compute a 0 or 1 for the whole
+// test.  Only elsewhere is the 0 or 1 materialized.
+
+class AndNode extends Binary {
+    public AndNode (Expression exp1, Expression exp2) { super ("and", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.test(store) && exp2.test(store);
+    }
+    public void compile(BytecodeCompiler c){
+      c.compileBoolean(this);
+    }
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+      if(!when){
+          exp1.compileTest(c, false, jumps);
+          exp2.compileTest(c, false, jumps);
+      }
+      else{
+          ArrayList<Integer> toFalse = new ArrayList<Integer>();
+          exp1.compileTest(c, false, toFalse);
+          exp2.compileTest(c, true, jumps);
+          c.patch(toFalse);
       }
-      else if(Objects.equals(op, "!=")){
-          return ((int)exp1.semantics(store) != (int)exp2.semantics(store))? 1:0;
+    }
+    void generateTest(JvmCompiler j, boolean when, ArrayList<Integer> jumps){
+      if(!when){
+          exp1.generateTest(j, false, jumps);
+          exp2.generateTest(j, false, jumps);
       }
-      else if(Objects.equals(op, ">")){
-          return ((int)exp1.semantics(store) > (int)exp2.semantics(store))? 1:0;
+      else{
+          ArrayList<Integer> toFalse = new ArrayList<Integer>();
+          exp1.generateTest(j, false, toFalse);
+          exp2.generateTest(j, true, jumps);
+          j.patch(toFalse);
+      }
+    }
+    // exp1 is always evaluated, so only a constant exp1 lets exp2 go, and
+    // only a 0-or-1 operand can stand for the whole test
+    Expression simplify(Optimizer opt){
+      if(Optimizer.is(exp1, 0))
+          return exp1;
+      if(exp1 instanceof IntValue && exp2.isBoolean())
+          return exp2;
+      if(exp2 instanceof IntValue && !Optimizer.is(exp2, 0) && exp1.isBoolean())
+          return exp1;
+      return this;
+    }
+    boolean isBoolean(){ return true; }
+}
+
+class OrNode extends Binary {
+    public OrNode (Expression exp1, Expression exp2) { super ("or", exp1, exp2); }
+    public int evalInt(Store store){
+      return test(store)? 1:0;
+    }
+    boolean test(Store store){
+      return exp1.test(store) || exp2.test(store);
+    }
+    public void compile(BytecodeCompiler c){
+      c.compileBoolean(this);
+    }
+    void compileTest(BytecodeCompiler c, boolean when, ArrayList<Integer> jumps){
+      if(when){
+          exp1.compileTest(c, true, jumps);
+          exp2.compileTest(c, true, jumps);
       }
-      else if(Objects.equals(op, "<")){
-          return ((int)exp1.semantics(store) < (int)exp2.semantics(store))? 1:0;
+      else{
+          ArrayList<Integer> toTrue = new ArrayList<Integer>();
+          exp1.compileTest(c, true, toTrue);
+          exp2.compileTest(c, false, jumps);
+          c.patch(toTrue);
       }
-      else if(Objects.equals(op, "cons")){
-          ((Vector<Object>)(exp1.semantics(store))).add(exp2.semantics(store));
-          return exp1.semantics(store);
+    }
+    void generateTest(JvmCompiler j, boolean when, ArrayList<Integer> jumps){
+      if(when){
+          exp1.generateTest(j, true, jumps);
+          exp2.generateTest(j, true, jumps);
       }
-      else if(Objects.equals(op, "and")){
-          if((int)exp1.semantics(store) != 0 && (int)exp2.semantics(store) != 0){
-              return 1;
-          }
+      else{
+          ArrayList<Integer> toTrue = new ArrayList<Integer>();
+          exp1.generateTest(j, true, toTrue);
+          exp2.generateTest(j, false, jumps);
+          j.patch(toTrue);
       }
-      else if(Objects.equals(op, "or")){
-          if((int)exp1.semantics(store) != 0 || (int)exp2.semantics(store) != 0){
-              return 1;
+    }
+    Expression simplify(Optimizer opt){
+      if(exp1 instanceof IntValue && !Optimizer.is(exp1, 0))
+          return new IntValue(1);
+      if(Optimizer.is(exp1, 0) && exp2.isBoolean())
+          return exp2;
+      if(Optimizer.is(exp2, 0) && exp1.isBoolean())
+          return exp1;
+      return this;
+    }
+    boolean isBoolean(){ return true; }
+}
+
+class ConsNode extends Binary {
+    protected boolean intElement;         // exp2 statically int
+    protected byte state;                 // see Specialization, if not
+    public ConsNode (Expression exp1, Expression exp2) { super ("cons", exp1, exp2); }
+    public Object semantics(Store store){
+      PersistentList list = Specialization.list(store, exp1.semantics(store));
+      store.interpreter.allocate(list.consCells());
+      if(intElement)
+          return list.consInt(exp2.evalInt(store));
+      if(state == Specialization.INT){
+          try{
+              return list.consInt(exp2.executeInt(store));
+          }
+          catch(UnexpectedResult r){
+              state = Specialization.GENERIC;
+              return list.cons(r.value);
           }
       }
-      return 0;
+      Object element = exp2.semantics(store);
+      if(state == Specialization.UNINITIALIZED)
+          state = Specialization.of(element);
+      return list.cons(element);
+    }
+    public void resolve(Store fstore){
+      super.resolve(fstore);
+      intElement = exp2.type(fstore) == Type.INT;
+    }
+    public int evalInt(Store store){
+      return Specialization.notInt(store, semantics(store));
     }
+    int executeInt(Store store) throws UnexpectedResult{
+      throw new UnexpectedResult(semantics(store));
+    }
+    public Type type(Store fstore){
+      return Type.MICRO_PYTHON_LIST;
+    }
+    public void compile(BytecodeCompiler c){
+      c.compileList(exp1);
+      exp2.compile(c);
+      c.emit(opcode());
+    }
+    int opcode(){ return Opcode.CONS; }
 }
 
 class FunctionCall extends Expression {
 
   protected String id;
   protected ArrayList <Expression> actualParameters;
+  protected Store callee;       // definition of id, looked up on first call
   public FunctionCall () { }
 
   public FunctionCall (String id, ArrayList <Expression> actualParameters) {
@@ -350,14 +1587,253 @@ class FunctionCall extends Expression {
     }
     return "(apply " + id + " (" + actualParameterList + "))";
   }
+    // the body runs again with the activation a TailCall leaves in next
     public Object semantics(Store store){
-      Store fstore = store.get_f(id);
-        Iterator <Expression> actualParameterIterator = actualParameters . iterator ();
-      for(String s:fstore.arg_list){
-          Expression e = (actualParameterIterator.next());
-          fstore.update(s,e.semantics(store));
-          fstore.update_f(id,fstore);
+      Store callee = callee(store);
+      Interpreter interpreter = store.interpreter;
+      if(interpreter.isCompiled(callee)
+         || interpreter.tiers != null && interpreter.tiers.called(callee))
+          return interpreter.invoke(callee, intArguments(store));
+      if(callee.memoizable && interpreter.memo != null)
+          return memoized(store);
+      Store frame = interpreter.acquire(callee);
+      try{
+          bind(frame, store);
+          Object value = (callee.func_body).semantics(frame);
+          while(frame.next != null){
+              frame = interpreter.shift(callee);
+              value = (callee.func_body).semantics(frame);
+          }
+          return value;
+      }
+      finally{
+          interpreter.release(callee);
       }
-      return (fstore.func_body).semantics(fstore);
     }
-} 
+    public int evalInt(Store store){
+      Store callee = callee(store);
+      Interpreter interpreter = store.interpreter;
+      if(interpreter.isCompiled(callee)
+         || interpreter.tiers != null && interpreter.tiers.called(callee))
+          return interpreter.invoke(callee, intArguments(store));
+      if(callee.memoizable && interpreter.memo != null){
+          Object value = memoized(store);
+          if(value instanceof Integer)
+              return (Integer)value;
+          return Specialization.notInt(store, value);
+      }
+      Store frame = interpreter.acquire(callee);
+      try{
+          bind(frame, store);
+          int value = (callee.func_body).semanticsInt(frame);
+          while(frame.next != null){
+              frame = interpreter.shift(callee);
+              value = (callee.func_body).semanticsInt(frame);
+          }
+          return value;
+      }
+      finally{
+          interpreter.release(callee);
+      }
+    }
+    // a call of a pure function of ints runs only if the memo does not
+    // already hold its value for these arguments
+    Object memoized(Store store){
+      Interpreter interpreter = store.interpreter;
+      int[] args = intArguments(store);
+      Memo.Key key = new Memo.Key(callee.index, args);
+      Object value = interpreter.memo.get(key);
+      if(value != null)
+          return value;
+      Store frame = interpreter.acquire(callee);
+      try{
+          for(int i = 0; i < args.length; i++)
+              frame.updateInt(i, args[i]);
+          value = (callee.func_body).semantics(frame);
+          while(frame.next != null){
+              frame = interpreter.shift(callee);
+              value = (callee.func_body).semantics(frame);
+          }
+      }
+      finally{
+          interpreter.release(callee);
+      }
+      interpreter.memo.put(key, value);
+      return value;
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+      if(callee(store).returnType == Type.INT)
+          return evalInt(store);
+      return super.executeInt(store);
+    }
+    // the arguments of a callee whose parameters are all ints
+    int[] intArguments(Store store){
+      int[] args = new int[callee.arg_list.size()];
+      for(int i = 0; i < args.length; i++)
+          args[i] = actualParameters.get(i).evalInt(store);
+      return args;
+    }
+    Store callee(Store store){
+      if(callee == null){
+          Store f = store.get_f(id);
+          int n = (actualParameters == null)? 0 : actualParameters.size();
+          if(f == null)
+              store.interpreter.error("function " + id + " UNDEFINED");
+          if(f.arg_list.size() != n)
+              store.interpreter.error("function " + id + " EXPECTS "
+                                      + f.arg_list.size() + " ARGUMENTS");
+          callee = f;
+      }
+      return callee;
+    }
+    // evaluates the arguments in the caller's store into the callee's frame
+    void bind(Store frame, Store store){
+      for(int i = 0; i < callee.arg_list.size(); i++){
+          Expression e = actualParameters.get(i);
+          if(callee.type(i) == Type.INT)
+              frame.updateInt(i,e.evalInt(store));
+          else
+              frame.update(i,e.semantics(store));
+      }
+    }
+    public Type type(Store fstore){
+      Store f = fstore.get_f(id);
+      return (f == null)? Type.ANY : f.returnType;
+    }
+    public void compile(BytecodeCompiler c){
+      int argumentCount = compileArguments(c);
+      c.emit(Opcode.CALL, c.function(id, argumentCount), argumentCount);
+    }
+    // an argument for an int parameter is checked as bind checks it
+    int compileArguments(BytecodeCompiler c){
+      if(actualParameters == null)
+          return 0;
+      Store f = c.module.function(id);
+      for(int i = 0; i < actualParameters.size(); i++){
+          Expression e = actualParameters.get(i);
+          if(f != null && i < f.arg_list.size() && f.type(i) == Type.INT)
+              c.compileInt(e);
+          else
+              e.compile(c);
+      }
+      return actualParameters.size();
+    }
+    public void resolve(Store fstore){
+      if(actualParameters != null)
+          for(Expression e : actualParameters)
+              e.resolve(fstore);
+    }
+    public Expression fold(Optimizer opt){
+      if(actualParameters != null)
+          for(int i = 0; i < actualParameters.size(); i++)
+              actualParameters.set(i, actualParameters.get(i).fold(opt));
+      return this;
+    }
+    int nodes(){
+      int n = 1;
+      if(actualParameters != null)
+          for(Expression e : actualParameters)
+              n += e.nodes();
+      return n;
+    }
+    void summarize(CallGraph graph){
+      graph.call(id);
+      if(actualParameters != null)
+          for(Expression e : actualParameters)
+              e.summarize(graph);
+    }
+    void generate(JvmCompiler j){
+      int n = (actualParameters == null)? 0 : actualParameters.size();
+      Store f = j.callee(id, n);
+      j.emit(JvmCompiler.ALOAD_0, 1);
+      for(int i = 0; i < n; i++)
+          actualParameters.get(i).generate(j);
+      j.call(f);
+    }
+    void write(AstWriter w){
+      w.node(AstWriter.CALL);
+      w.identifier(id);
+      w.varint((actualParameters == null)? 0 : actualParameters.size());
+      if(actualParameters != null)
+          for(Expression e : actualParameters)
+              e.write(w);
+    }
+    Expression copy(Inliner in){
+      ArrayList<Expression> args = new ArrayList<Expression>();
+      if(actualParameters != null)
+          for(Expression e : actualParameters)
+              args.add(e.copy(in));
+      return new FunctionCall(id, args);
+    }
+    Expression inline(Inliner in){
+      if(actualParameters != null)
+          for(int i = 0; i < actualParameters.size(); i++)
+              actualParameters.set(i, actualParameters.get(i).inline(in));
+      return in.expand(this);
+    }
+}
+
+// The body of a function substituted for a call of it by the Inliner.  The
+// statements bind the arguments to copies of the callee's parameters and
+// run a copy of its body, all in locals of the caller's frame; the value is
+// that of the callee's return expression.
+
+class InlinedCall extends Expression {
+
+  protected String id;                  // the callee, for printing only
+  protected Statement body;
+  protected Expression result;
+
+  public InlinedCall (String id, Statement body, Expression result) {
+    this . id = id;
+    this . body = body;
+    this . result = result;
+  }
+
+  public String toString () {
+    return "(inline " + id + " " + body + " " + result + ")";
+  }
+    public Object semantics(Store store){
+      body.semantics(store);
+      return result.semantics(store);
+    }
+    public int evalInt(Store store){
+      body.semantics(store);
+      return result.evalInt(store);
+    }
+    int executeInt(Store store) throws UnexpectedResult{
+      body.semantics(store);
+      return result.executeInt(store);
+    }
+    public void compile(BytecodeCompiler c){
+      body.compile(c);
+      result.compile(c);
+    }
+    public Type type(Store fstore){
+      return result.type(fstore);
+    }
+    public void resolve(Store fstore){
+      body.resolve(fstore);
+      result.resolve(fstore);
+    }
+    Expression fold(Optimizer opt){
+      body = body.fold(opt);
+      result = result.fold(opt);
+      return this;
+    }
+    int nodes(){ return 1 + body.nodes() + result.nodes(); }
+    void summarize(CallGraph graph){
+      body.summarize(graph);
+      result.summarize(graph);
+    }
+    void generate(JvmCompiler j){
+      body.generate(j);
+      result.generate(j);
+    }
+    Expression copy(Inliner in){
+      return new InlinedCall(id, body.copy(in), result.copy(in));
+    }
+    Expression inline(Inliner in){
+      return this;
+    }
+}
@@ -0,0 +1,82 @@
+// AstBenchmark.java
+
+// This program compares loading a program from an AST file with parsing
+// its source.  For each of the given programs, or else a generated script
+// of the requested size, it times lexing and parsing the source into
+// functions, and reading the same functions from the AST file AstWriter
+// makes of them, mapped into memory, several times each, after a garbage
+// collection so that one run does not pay for another.  Resolving the
+// functions afterwards is the same work either way and is not timed.
+
+// usage: java AstBenchmark [-runs n] [-mb n] [program.py ...]
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.List;
+
+public class AstBenchmark {
+
+  public static void main (String args []) throws IOException {
+    int runs = 5;
+    int mb = 8;
+    int arg = 0;
+    for (; arg + 1 < args . length && args [arg] . startsWith ("-"); arg += 2) {
+      switch (args [arg]) {
+        case "-runs" : runs = Integer . parseInt (args [arg + 1]); break;
+        case "-mb"   : mb = Integer . parseInt (args [arg + 1]); break;
+        default      : ErrorMessage . print ("Unknown option " + args [arg]);
+      }
+    }
+    if (arg == args . length) {
+      File script = LexerBenchmark . generate (mb);
+      try {
+        time (script, runs);
+      }
+      finally {
+        script . delete ();
+      }
+    }
+    else
+      for (; arg < args . length; arg++)
+        time (new File (args [arg]), runs);
+  }
+
+  public static void time (File file, int runs) throws IOException {
+    Options options = new Options ();
+    options . listing = false;
+    Path ast = Files . createTempFile ("ast", AstWriter . EXTENSION);
+    try {
+      byte [] bytes = AstWriter . write (parse (file, options));
+      Files . write (ast, bytes);
+      System . out . printf ("%s (%.1f MB source, %.1f MB AST)%n", file,
+                             file . length () / 1048576.0, bytes . length / 1048576.0);
+      double parse = Double . MAX_VALUE, load = Double . MAX_VALUE;
+      for (int i = 0; i < runs; i++) {
+        System . gc ();
+        long start = System . nanoTime ();
+        int n = parse (file, options) . size ();
+        double parsed = (System . nanoTime () - start) / 1e6;
+        System . gc ();
+        start = System . nanoTime ();
+        int m = AstReader . mapped (ast) . functions (new Store ()) . size ();
+        double loaded = (System . nanoTime () - start) / 1e6;
+        if (n != m)
+          throw new IllegalStateException (n + " functions parsed, " + m + " loaded");
+        System . out . printf ("  run %d: parse %8.1f ms   load %8.1f ms   %5.1fx  (%d functions)%n",
+                               i + 1, parsed, loaded, parsed / loaded, n);
+        parse = Math . min (parse, parsed);
+        load = Math . min (load, loaded);
+      }
+      System . out . printf ("  best runs: parse %.1f ms, load %.1f ms, %.1fx faster%n",
+                             parse, load, parse / load);
+    }
+    finally {
+      Files . deleteIfExists (ast);
+    }
+  }
+
+  private static List<Store> parse (File file, Options options) throws IOException {
+    return new ParserAST (file . getPath (), options) . functions (new Store ());
+  }
+
+}
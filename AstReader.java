@@ -0,0 +1,214 @@
+// AstReader.java
+
+// AstReader is a class to read the functions of a program back from the
+// binary form AstWriter writes, building the same trees the parser would
+// for the source.  It reads straight out of a ByteBuffer, such as a file
+// mapped into memory, with no copy of the file and no tokens; only the
+// identifier table is decoded into Strings, once per name.  A file that is
+// not an AST file, is of another format version, or ends early or holds
+// an unknown tag, index or operator is rejected with an IOException, as
+// is one with a count larger than the bytes left, so that a corrupt file
+// never makes the reader allocate for it, or one nested deeper than the
+// reader's recursion can follow.
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class AstReader {
+
+  private static final Type [] TYPES = Type . values ();
+
+  protected ByteBuffer buffer;
+  protected String [] names;                    // the identifier table
+
+  public AstReader (ByteBuffer buffer) throws IOException {
+    this . buffer = buffer . duplicate () . order (ByteOrder . BIG_ENDIAN);
+    try {
+      if (this . buffer . getInt () != AstWriter . MAGIC)
+        throw new IOException ("not an AST file");
+      int version = this . buffer . getShort () & 0xffff;
+      if (version != AstWriter . VERSION)
+        throw new IOException ("AST format version " + version + ", expected "
+                               + AstWriter . VERSION);
+      names = new String [count ()];
+      byte [] utf8 = new byte [64];
+      for (int i = 0; i < names . length; i++) {
+        int n = count ();
+        if (n > utf8 . length)
+          utf8 = new byte [Math . max (n, 2 * utf8 . length)];
+        this . buffer . get (utf8, 0, n);
+        names [i] = new String (utf8, 0, n, StandardCharsets . UTF_8);
+      }
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException
+           | IllegalArgumentException e) {
+      throw failure (e);
+    }
+  }
+
+  // a reader of the AST file, mapped into memory
+
+  public static AstReader mapped (Path file) throws IOException {
+    try (FileChannel channel = FileChannel . open (file)) {
+      return new AstReader (channel . map (FileChannel . MapMode . READ_ONLY,
+                                           0, channel . size ()));
+    }
+  }
+
+  // the functions of the program, as parsed, with their definitions in
+  // the function table store, as ParserAST . functions returns them
+
+  public List<Store> functions (Store store) throws IOException {
+    try {
+      int n = count ();
+      ArrayList<Store> functions = new ArrayList<Store> (n);
+      for (int i = 0; i < n; i++)
+        functions . add (function (store));
+      if (buffer . hasRemaining ())
+        throw new IOException ("AST file has " + buffer . remaining () + " bytes too many");
+      return functions;
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException
+           | IllegalArgumentException e) {
+      throw failure (e);
+    }
+    catch (StackOverflowError e) {
+      throw new IOException ("AST file nested too deeply", e);
+    }
+  }
+
+  // the IOException for e, thrown decoding a file that is not as written
+
+  private static IOException failure (RuntimeException e) {
+    if (e instanceof BufferUnderflowException)
+      return new IOException ("AST file truncated", e);
+    return new IOException ("AST file corrupt: " + e . getMessage (), e);
+  }
+
+  private Store function (Store store) throws IOException {
+    String id = identifier ();
+    int k = count ();
+    Vector<String> args = new Vector<String> (k);
+    Vector<Type> argTypes = new Vector<Type> (k);
+    for (int i = 0; i < k; i++) {
+      args . add (identifier ());
+      argTypes . add (type ());
+    }
+    Type returnType = type ();
+    return ParserAST . define (store, id, args, argTypes, returnType, statement ());
+  }
+
+  private Statement statement () throws IOException {
+    int tag = buffer . get ();
+    switch (tag) {
+      case AstWriter . SEQUENCE : {
+        int n = count ();
+        ArrayList<Statement> stmts = new ArrayList<Statement> (n);
+        for (int i = 0; i < n; i++)
+          stmts . add (statement ());
+        return new Statement (stmts);
+      }
+      case AstWriter . ASSIGNMENT : {
+        Identifier lhs = new Identifier (identifier ());
+        return new Assignment (lhs, expression ());
+      }
+      case AstWriter . IF : {
+        Expression test = expression ();
+        return new IfStatement (test, statement ());
+      }
+      case AstWriter . IF_ELSE : {
+        Expression test = expression ();
+        Statement thenStmt = statement ();
+        return new IfStatement (test, thenStmt, statement ());
+      }
+      case AstWriter . WHILE : {
+        Expression test = expression ();
+        return new WhileStatement (test, statement ());
+      }
+      case AstWriter . PRINT :
+        return new PrintStatement (expression ());
+      case AstWriter . RETURN :
+        return new ReturnStatement (expression ());
+      default :
+        throw new IOException ("AST file corrupt: statement tag " + tag);
+    }
+  }
+
+  private Expression expression () throws IOException {
+    int tag = buffer . get ();
+    switch (tag) {
+      case AstWriter . IDENTIFIER :
+        return new Identifier (identifier ());
+      case AstWriter . INTEGER : {
+        int z = varint ();
+        return new IntValue ((z >>> 1) ^ -(z & 1));
+      }
+      case AstWriter . INPUT :
+        return new Input ();
+      case AstWriter . LIST :
+        return new MicroPythonList ();
+      case AstWriter . UNARY : {
+        String op = operator ();
+        return Unary . create (op, expression ());
+      }
+      case AstWriter . BINARY : {
+        String op = operator ();
+        Expression exp1 = expression ();
+        return Binary . create (op, exp1, expression ());
+      }
+      case AstWriter . CALL : {
+        String id = identifier ();
+        int n = count ();
+        ArrayList<Expression> args = null;
+        if (n > 0) {
+          args = new ArrayList<Expression> (n);
+          for (int i = 0; i < n; i++)
+            args . add (expression ());
+        }
+        return new FunctionCall (id, args);
+      }
+      default :
+        throw new IOException ("AST file corrupt: expression tag " + tag);
+    }
+  }
+
+  private String identifier () {
+    return names [varint ()];
+  }
+
+  private String operator () {
+    return AstWriter . OPERATORS [varint ()];
+  }
+
+  private Type type () {
+    return TYPES [buffer . get ()];
+  }
+
+  // a number of items that follow, each at least a byte long
+
+  private int count () throws IOException {
+    int n = varint ();
+    if (n < 0)
+      throw new IOException ("AST file corrupt: count " + n);
+    if (n > buffer . remaining ())
+      throw new IOException ("AST file truncated");
+    return n;
+  }
+
+  private int varint () {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer . get ();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0)
+        return value;
+      if (shift == 28)
+        throw new IllegalArgumentException ("varint too long");
+    }
+  }
+
+}
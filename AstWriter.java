@@ -0,0 +1,160 @@
+// AstWriter.java
+
+// AstWriter is a class to write the functions of a program, as the parser
+// built them and before they are resolved, in a compact binary form that
+// AstReader turns back into the same trees without lexing or parsing.
+// Everything the passes after parsing work out is left out and done again
+// on loading, so the format changes only with the grammar.
+//
+// The format, all of it big-endian:
+//
+//   file       ::= MAGIC VERSION:u2 varint(n) identifier^n varint(m) function^m
+//   identifier ::= varint(length) UTF-8 bytes
+//   function   ::= id varint(k) (id type)^k type node
+//   node       ::= tag:u1 operands
+//
+// An id is the varint index of a name in the identifier table, which holds
+// every function and variable name once; a type is a Type ordinal in one
+// byte.  The operands of each tag are what its node's write method puts
+// after it: child nodes in order, ids, varint counts, and for an integer
+// its value zigzag-encoded so that small negative values stay short.
+// VERSION is raised whenever the format, the tags, the operator table or
+// Type changes.
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class AstWriter {
+
+  public static final int MAGIC = 0x4d504131;   // "MPA1"
+  public static final int VERSION = 1;
+  public static final String EXTENSION = ".mpa";
+
+  // node tags
+
+  public static final int SEQUENCE = 1;         // varint(n) statement^n
+  public static final int ASSIGNMENT = 2;       // id expression
+  public static final int IF = 3;               // test then
+  public static final int IF_ELSE = 4;          // test then else
+  public static final int WHILE = 5;            // test body
+  public static final int PRINT = 6;            // expression
+  public static final int RETURN = 7;           // expression
+  public static final int IDENTIFIER = 8;       // id
+  public static final int INTEGER = 9;          // zigzag varint
+  public static final int INPUT = 10;
+  public static final int LIST = 11;
+  public static final int UNARY = 12;           // operator expression
+  public static final int BINARY = 13;          // operator expression expression
+  public static final int CALL = 14;            // id varint(n) expression^n
+
+  // the operators of Unary and Binary nodes, by the index written for them
+
+  static final String [] OPERATORS = {
+    "-", "not", "head", "tail", "null",
+    "+", "*", "//", "==", "!=", "<", "<=", ">", ">=", "and", "or", "cons"
+  };
+
+  protected byte [] bytes = new byte [1 << 12];
+  protected int length;
+  protected HashMap<String,Integer> ids = new HashMap<String,Integer> ();
+  protected ArrayList<String> names = new ArrayList<String> ();
+
+  // the functions as an AST file
+
+  public static byte [] write (List<Store> functions) {
+    AstWriter body = new AstWriter ();
+    body . varint (functions . size ());
+    for (Store fstore : functions)
+      body . function (fstore);
+    AstWriter file = new AstWriter ();
+    file . u4 (MAGIC);
+    file . u2 (VERSION);
+    file . varint (body . names . size ());
+    for (String name : body . names) {
+      byte [] utf8 = name . getBytes (StandardCharsets . UTF_8);
+      file . varint (utf8 . length);
+      file . bytes (utf8, utf8 . length);
+    }
+    file . bytes (body . bytes, body . length);
+    return Arrays . copyOf (file . bytes, file . length);
+  }
+
+  private void function (Store fstore) {
+    identifier (fstore . id);
+    varint (fstore . arg_list . size ());
+    for (int i = 0; i < fstore . arg_list . size (); i++) {
+      identifier (fstore . arg_list . get (i));
+      type (fstore . type (i));
+    }
+    type (fstore . returnType);
+    fstore . func_body . write (this);
+  }
+
+  public void node (int tag) {
+    u1 (tag);
+  }
+
+  public void identifier (String id) {
+    Integer i = ids . get (id);
+    if (i == null) {
+      i = names . size ();
+      ids . put (id, i);
+      names . add (id);
+    }
+    varint (i);
+  }
+
+  public void operator (String op) {
+    int i = Arrays . asList (OPERATORS) . indexOf (op);
+    if (i < 0)
+      throw new IllegalStateException ("no AST tag for operator " + op);
+    varint (i);
+  }
+
+  public void type (Type type) {
+    u1 (type . ordinal ());
+  }
+
+  public void unsupported (Object node) {
+    throw new IllegalStateException ("no AST tag for " + node . getClass () . getName ());
+  }
+
+  // an unsigned LEB128 varint: seven bits a byte, low bits first, the top
+  // bit set on every byte but the last
+
+  public void varint (int value) {
+    while ((value & ~0x7f) != 0) {
+      u1 ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    u1 (value);
+  }
+
+  public void signed (int value) {
+    varint ((value << 1) ^ (value >> 31));
+  }
+
+  private void u1 (int b) {
+    if (length == bytes . length)
+      bytes = Arrays . copyOf (bytes, 2 * length);
+    bytes [length++] = (byte) b;
+  }
+
+  private void u2 (int value) {
+    u1 (value >>> 8);
+    u1 (value);
+  }
+
+  private void u4 (int value) {
+    u2 (value >>> 16);
+    u2 (value);
+  }
+
+  private void bytes (byte [] b, int n) {
+    if (length + n > bytes . length)
+      bytes = Arrays . copyOf (bytes, Math . max (2 * bytes . length, length + n));
+    System . arraycopy (b, 0, bytes, length, n);
+    length += n;
+  }
+
+}
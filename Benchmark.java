@@ -0,0 +1,69 @@
+// Benchmark.java
+
+// This program times MicroPython programs.  Each program is run several
+// times in one JVM with its output discarded, and the wall time, heap
+// allocation and peak heap occupancy of every run are reported, so that
+// later runs show the interpreter after JIT warm-up.
+
+// usage: java Benchmark [-runs n] [interpreter options] program.py ...
+
+import java.io.*;
+import java.lang.management.*;
+
+public class Benchmark {
+
+  public static void main (String args []) throws IOException {
+    int runs = 5;
+    if (args . length > 1 && args [0] . equals ("-runs")) {
+      runs = Integer . parseInt (args [1]);
+      args = java . util . Arrays . copyOfRange (args, 2, args . length);
+    }
+    Options options = new Options ();
+    int first = options . parse (args);
+    for (int arg = first; arg < args . length; arg++)
+      time (args [arg], options, runs);
+  }
+
+  public static void time (String file, Options options, int runs) {
+    PrintStream out = System . out;
+    long [] times = new long [runs];
+    long [] bytes = new long [runs];
+    long [] peaks = new long [runs];
+    for (int i = 0; i < runs; i++) {
+      final int run = i;
+      System . setOut (new PrintStream (OutputStream . nullOutputStream ()));
+      System . gc ();
+      for (MemoryPoolMXBean pool : ManagementFactory . getMemoryPoolMXBeans ())
+        pool . resetPeakUsage ();
+      MicPyInt . start (() -> {
+        long allocated = allocatedBytes ();
+        long start = System . nanoTime ();
+        try {
+          MicPyInt . run (file, options);
+        }
+        catch (IOException e) {
+          ErrorMessage . print (e . getMessage ());
+        }
+        catch (ErrorMessage.Abort e) {
+          System . err . println (file + ": " + e . getMessage ());
+        }
+        times [run] = System . nanoTime () - start;
+        bytes [run] = allocatedBytes () - allocated;
+      }, options);
+      for (MemoryPoolMXBean pool : ManagementFactory . getMemoryPoolMXBeans ())
+        if (pool . getType () == MemoryType . HEAP)
+          peaks [run] += pool . getPeakUsage () . getUsed ();
+      System . setOut (out);
+    }
+    out . println (file);
+    for (int i = 0; i < runs; i++)
+      out . printf ("  run %d: %8.1f ms %12d bytes allocated %6d MB peak heap%n",
+                    i + 1, times [i] / 1e6, bytes [i], peaks [i] >> 20);
+  }
+
+  private static long allocatedBytes () {
+    return ((com . sun . management . ThreadMXBean) ManagementFactory . getThreadMXBean ())
+      . getThreadAllocatedBytes (Thread . currentThread () . getId ());
+  }
+
+}
@@ -0,0 +1,289 @@
+// BytecodeCompiler.java
+
+// BytecodeCompiler is a class to lower the abstract syntax tree of each
+// MicroPython function into a CompiledFunction.  Each node of the tree emits
+// its own instructions through its compile method; this class holds the code
+// buffer, constant pool and jump patching for the function currently being
+// compiled.  Local slots are the ones numbered by the resolution pass in
+// ParserAST.resolve.  Callees are compiled after their caller so that
+// recursive functions share one CompiledFunction.  The instructions trust
+// the static types the resolution pass worked out; where a value of no
+// static type is used as an int or a list, a CHECK_INT or CHECK_LIST is
+// emitted after it, so that the machine reports the error the tree
+// interpreter would rather than reading the wrong half of a slot.
+
+import java.util.*;
+
+public class BytecodeCompiler {
+
+  protected Module module;
+  protected TreeMap<String,CompiledFunction> compiled;
+  protected LinkedList<Store> pending;
+
+  // state of the function currently being compiled
+  protected Store fstore;
+  protected int [] code;
+  protected int pc;
+  protected int depth, maxDepth;
+  protected ArrayList<Integer> intPool;
+  protected ArrayList<CompiledFunction> functions;
+  protected int temporaries, maxTemporaries;
+  protected ArrayList<Integer> constants;       // of the constant registers
+  protected ArrayList<Integer> constantOperands; // code positions to relocate
+
+  public BytecodeCompiler (Module module) {
+    this . module = module;
+    compiled = new TreeMap<String,CompiledFunction>();
+    pending = new LinkedList<Store>();
+  }
+
+  // Compiles fstore and every function reachable from it, returning the
+  // CompiledFunction for fstore.
+
+  public CompiledFunction compile (Store fstore) {
+    CompiledFunction entry = declare(fstore);
+    while (!pending.isEmpty())
+      compileFunction(pending.removeFirst());
+    return entry;
+  }
+
+  private CompiledFunction declare (Store fstore) {
+    CompiledFunction fn = compiled.get(fstore.id);
+    if (fn == null) {
+      fn = new CompiledFunction(fstore.id);
+      fn.arity = fstore.arg_list.size();
+      fn.index = fstore.index;
+      fn.memoizable = fstore.memoizable;
+      compiled.put(fstore.id, fn);
+      pending.add(fstore);
+    }
+    return fn;
+  }
+
+  private void compileFunction (Store fstore) {
+    CompiledFunction fn = compiled.get(fstore.id);
+    this.fstore = fstore;
+    code = new int[64];
+    pc = 0;
+    depth = maxDepth = 0;
+    intPool = new ArrayList<Integer>();
+    functions = new ArrayList<CompiledFunction>();
+    temporaries = maxTemporaries = 0;
+    constants = new ArrayList<Integer>();
+    constantOperands = new ArrayList<Integer>();
+    fstore.func_body.compile(this);
+
+    // the constant registers go after the temporaries, now that there is
+    // a number of them
+    int constantBase = fstore.localCount() + maxTemporaries;
+    for (int position : constantOperands)
+      code[position] += constantBase;
+
+    fn.code = Arrays.copyOf(code, pc);
+    fn.intPool = new int[intPool.size()];
+    for (int i = 0; i < fn.intPool.length; i++)
+      fn.intPool[i] = intPool.get(i);
+    fn.functions = functions.toArray(new CompiledFunction[0]);
+    fn.localNames = fstore.names();
+    fn.localCount = fstore.localCount();
+    fn.temporaries = maxTemporaries;
+    fn.constants = new int[constants.size()];
+    for (int i = 0; i < fn.constants.length; i++)
+      fn.constants[i] = constants.get(i);
+    fn.frameSize = constantBase + fn.constants.length;
+    fn.maxStack = maxDepth;
+  }
+
+  public int intConstant (int value) {
+    int i = intPool.indexOf(value);
+    if (i < 0) {
+      i = intPool.size();
+      intPool.add(value);
+    }
+    return i;
+  }
+
+  public int function (String id, int argumentCount) {
+    Store fstore = module.function(id);
+    if (fstore == null)
+      throw new RuntimeError("function " + id + " UNDEFINED");
+    if (fstore.arg_list.size() != argumentCount)
+      throw new RuntimeError("function " + id + " EXPECTS "
+                             + fstore.arg_list.size() + " ARGUMENTS");
+    CompiledFunction fn = declare(fstore);
+    int i = functions.indexOf(fn);
+    if (i < 0) {
+      i = functions.size();
+      functions.add(fn);
+    }
+    return i;
+  }
+
+  // e, whose value is used as an int; a call is checked whatever its
+  // return type, as RETURN does not check, and neither does the tree
+  // interpreter unless the call's value is needed as an int
+  public void compileInt (Expression e) {
+    e.compile(this);
+    if (e.type(fstore) != Type.INT || e instanceof FunctionCall)
+      emit(Opcode.CHECK_INT);
+  }
+
+  // e, whose value is used as a list
+  public void compileList (Expression e) {
+    e.compile(this);
+    if (e.type(fstore) != Type.MICRO_PYTHON_LIST)
+      emit(Opcode.CHECK_LIST);
+  }
+
+  // Registers.  An int expression of int locals, constants, +, -, * and //,
+  // one for which isRegister holds, is computed by register instructions
+  // into a register rather than on the operand stack, each operation into
+  // a temporary of its own, and the last one straight into its target.
+  // Temporaries live only until the statement or test that uses them is
+  // done.  Expression.register computes an expression into a register.
+
+  // emits the register instruction opcode computing a and b into target,
+  // or into a new temporary if target is -1, and returns that register
+  public int operation (int opcode, int a, int b, int target) {
+    if (target < 0)
+      target = temporary();
+    emitRegisters(opcode, target, a, b);
+    return target;
+  }
+
+  // the register of a local, copied into target unless it is -1
+  public int move (int register, int target) {
+    if (target < 0 || target == register)
+      return register;
+    emitRegisters(Opcode.MOVE_R, target, register);
+    return target;
+  }
+
+  // the register of the int constant value, copied into target unless it
+  // is -1
+  public int constant (int value, int target) {
+    int i = constants.indexOf(value);
+    if (i < 0) {
+      i = constants.size();
+      constants.add(value);
+    }
+    if (target < 0)
+      return ~i;
+    emitRegisters(Opcode.MOVE_R, target, ~i);
+    return target;
+  }
+
+  public int temporary () {
+    int t = fstore.localCount() + temporaries++;
+    if (temporaries > maxTemporaries)
+      maxTemporaries = temporaries;
+    return t;
+  }
+
+  public void releaseTemporaries () {
+    temporaries = 0;
+  }
+
+  // emits a register instruction; a constant register, still the
+  // complement of its index, is relocated when the function is done
+  private void emitRegisters (int opcode, int... registers) {
+    for (int i = 0; i < registers.length; i++)
+      if (registers[i] < 0) {
+        constantOperands.add(pc + 1 + i);
+        registers[i] = ~registers[i];
+      }
+    emit(opcode, registers);
+  }
+
+  // emits a jump on the registers a and b, with an unresolved target, and
+  // returns the position of the target operand for patch
+  public int emitJump (int opcode, int a, int b) {
+    emitRegisters(opcode, a, b, 0);
+    releaseTemporaries();
+    return pc - 1;
+  }
+
+  // emitting instructions; the operand stack depth is tracked so that the
+  // virtual machine can size each frame once at call time
+
+  public void emit (int opcode, int... operands) {
+    if (pc + 1 + operands.length > code.length)
+      code = Arrays.copyOf(code, 2 * code.length + operands.length);
+    code[pc++] = opcode;
+    for (int operand : operands)
+      code[pc++] = operand;
+    adjustDepth(stackEffect(opcode, operands));
+  }
+
+  public void adjustDepth (int delta) {
+    depth += delta;
+    if (depth > maxDepth)
+      maxDepth = depth;
+  }
+
+  private static int stackEffect (int opcode, int [] operands) {
+    switch (opcode) {
+      case Opcode.PUSH_INT  :
+      case Opcode.LOAD      :
+      case Opcode.NEW_LIST  :
+      case Opcode.INPUT     : return 1;
+      case Opcode.NEG       :
+      case Opcode.NOT       :
+      case Opcode.HEAD      :
+      case Opcode.TAIL      :
+      case Opcode.NULL      :
+      case Opcode.JUMP      :
+      case Opcode.LOOP      :
+      case Opcode.CHECK_INT :
+      case Opcode.CHECK_LIST :
+      case Opcode.ADD_R     :
+      case Opcode.SUB_R     :
+      case Opcode.MUL_R     :
+      case Opcode.DIV_R     :
+      case Opcode.MOVE_R    :
+      case Opcode.MOVE      :
+      case Opcode.JUMP_LT   :
+      case Opcode.JUMP_LE   :
+      case Opcode.JUMP_EQ   :
+      case Opcode.JUMP_NE   : return 0;
+      case Opcode.CALL      : return 1 - operands[1];
+      case Opcode.TAIL_CALL : return -operands[0];
+      default               : return -1;
+    }
+  }
+
+  // emits a jump with an unresolved target and returns the position of the
+  // target operand for patch
+
+  public int emitJump (int opcode) {
+    emit(opcode, -1);
+    return pc - 1;
+  }
+
+  public void patch (int operandPosition) {
+    code[operandPosition] = pc;
+  }
+
+  public void patch (List<Integer> operandPositions) {
+    for (int position : operandPositions)
+      patch(position);
+  }
+
+  // the 0 or 1 value of a test such as and or or, which compiles to jumps
+
+  public void compileBoolean (Expression test) {
+    ArrayList<Integer> toFalse = new ArrayList<Integer>();
+    test.compileTest(this, false, toFalse);
+    emit(Opcode.PUSH_INT, intConstant(1));
+    int toEnd = emitJump(Opcode.JUMP);
+    adjustDepth(-1);
+    patch(toFalse);
+    emit(Opcode.PUSH_INT, intConstant(0));
+    patch(toEnd);
+  }
+
+  public int position () {
+    return pc;
+  }
+
+}
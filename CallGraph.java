@@ -0,0 +1,72 @@
+// CallGraph.java
+
+// CallGraph is a class to summarize what each function of a program does
+// besides computing its result: which functions it calls, and whether it
+// prints or reads input.  Each node's summarize method records its own part
+// for the function being summarized.  A function is pure if it neither
+// prints nor reads and calls only pure functions; purity is found as the
+// largest set of functions closed under that rule, so functions that call
+// each other, or themselves, can be pure.
+
+import java.util.*;
+
+public class CallGraph {
+
+  protected TreeMap<String,TreeSet<String>> calls;
+  protected TreeSet<String> io;                 // functions that print or read
+  protected TreeSet<String> current;            // calls of the function being summarized
+  protected String currentId;
+
+  public CallGraph (List<Store> functions) {
+    calls = new TreeMap<String,TreeSet<String>> ();
+    io = new TreeSet<String> ();
+    for (Store fstore : functions) {
+      currentId = fstore . id;
+      current = new TreeSet<String> ();
+      calls . put (fstore . id, current);
+      fstore . func_body . summarize (this);
+    }
+  }
+
+  public void call (String id) { current . add (id); }
+
+  public void io () { io . add (currentId); }
+
+  // the functions id calls directly
+
+  public Set<String> callees (String id) {
+    Set<String> callees = calls . get (id);
+    return (callees == null) ? Collections . <String> emptySet () : callees;
+  }
+
+  public Set<String> pure () {
+    TreeSet<String> pure = new TreeSet<String> (calls . keySet ());
+    pure . removeAll (io);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Iterator<String> i = pure . iterator (); i . hasNext (); )
+        if (!pure . containsAll (callees (i . next ()))) {
+          i . remove ();
+          changed = true;
+        }
+    }
+    return pure;
+  }
+
+  // true if id can call itself, directly or through other functions
+
+  public boolean recursive (String id) {
+    TreeSet<String> seen = new TreeSet<String> ();
+    LinkedList<String> work = new LinkedList<String> (callees (id));
+    while (!work . isEmpty ()) {
+      String f = work . removeFirst ();
+      if (f . equals (id))
+        return true;
+      if (seen . add (f))
+        work . addAll (callees (f));
+    }
+    return false;
+  }
+
+}
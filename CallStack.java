@@ -0,0 +1,27 @@
+// CallStack.java
+
+// CallStack is a class to count the active MicroPython function calls of a
+// program and tell when they nest deeper than the configured limit.
+
+public class CallStack {
+
+  protected int limit;
+  protected int depth;
+
+  public CallStack (int limit) {
+    this . limit = limit;
+  }
+
+  // false once the new call nests deeper than the limit
+
+  public boolean push () {
+    return ++depth <= limit;
+  }
+
+  public void pop () {
+    depth--;
+  }
+
+  public int limit () { return limit; }
+
+}
@@ -17,4 +17,4 @@ public class Category {
   }
 
 }
-enum Type { INT, MICRO_PYTHON_LIST, BOOLEAN, ERROR }
\ No newline at end of file
+enum Type { INT, MICRO_PYTHON_LIST, BOOLEAN, ANY, ERROR }
\ No newline at end of file
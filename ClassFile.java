@@ -0,0 +1,166 @@
+// ClassFile.java
+
+// ClassFile is a class to write a JVM class file holding static methods,
+// with no fields and no constructor, for JvmCompiler.  Constant pool
+// entries are made on demand and shared.  The class file version is 49 so
+// that the JVM's verifier infers the types of the locals and the operand
+// stack at branch targets itself, and the methods need no StackMapTable.
+
+import java.io.*;
+import java.util.*;
+
+public class ClassFile {
+
+  public static final int VERSION = 49;
+
+  public static final int ACC_STATIC = 0x0008;
+  public static final int ACC_FINAL = 0x0010;
+  public static final int ACC_SUPER = 0x0020;
+
+  protected String name;
+  protected ByteArrayOutputStream pool = new ByteArrayOutputStream ();
+  protected DataOutputStream poolOut = new DataOutputStream (pool);
+  protected int poolCount = 1;
+  protected HashMap<String,Integer> entries = new HashMap<String,Integer> ();
+  protected ByteArrayOutputStream methods = new ByteArrayOutputStream ();
+  protected DataOutputStream methodsOut = new DataOutputStream (methods);
+  protected int methodCount;
+
+  public ClassFile (String name) {
+    this . name = name;
+  }
+
+  public String name () { return name; }
+
+  // constant pool entries, by index
+
+  public int utf8 (String s) {
+    Integer i = entries . get ("U" + s);
+    if (i != null)
+      return i;
+    try {
+      poolOut . writeByte (1);
+      poolOut . writeUTF (s);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+    return add ("U" + s);
+  }
+
+  public int classRef (String name) {
+    Integer i = entries . get ("C" + name);
+    if (i != null)
+      return i;
+    int n = utf8 (name);
+    write (7, n);
+    return add ("C" + name);
+  }
+
+  public int integer (int value) {
+    Integer i = entries . get ("I" + value);
+    if (i != null)
+      return i;
+    try {
+      poolOut . writeByte (3);
+      poolOut . writeInt (value);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+    return add ("I" + value);
+  }
+
+  public int fieldRef (String owner, String name, String descriptor) {
+    return memberRef (9, owner, name, descriptor);
+  }
+
+  public int methodRef (String owner, String name, String descriptor) {
+    return memberRef (10, owner, name, descriptor);
+  }
+
+  private int memberRef (int tag, String owner, String name, String descriptor) {
+    String key = tag + owner + "." + name + ":" + descriptor;
+    Integer i = entries . get (key);
+    if (i != null)
+      return i;
+    int c = classRef (owner);
+    int n = utf8 (name), d = utf8 (descriptor);
+    Integer nt = entries . get ("N" + name + ":" + descriptor);
+    if (nt == null) {
+      write (12, n, d);
+      nt = add ("N" + name + ":" + descriptor);
+    }
+    write (tag, c, nt);
+    return add (key);
+  }
+
+  private void write (int tag, int... u2) {
+    try {
+      poolOut . writeByte (tag);
+      for (int u : u2)
+        poolOut . writeShort (u);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+  }
+
+  private int add (String key) {
+    if (poolCount == 0xffff)
+      throw new IllegalStateException ("constant pool full");
+    entries . put (key, poolCount);
+    return poolCount++;
+  }
+
+  // a method whose Code attribute holds code, with no exception handlers
+
+  public void method (int access, String name, String descriptor,
+                      int maxStack, int maxLocals, byte [] code, int length) {
+    try {
+      methodsOut . writeShort (access);
+      methodsOut . writeShort (utf8 (name));
+      methodsOut . writeShort (utf8 (descriptor));
+      methodsOut . writeShort (1);              // attributes
+      methodsOut . writeShort (utf8 ("Code"));
+      methodsOut . writeInt (12 + length);
+      methodsOut . writeShort (maxStack);
+      methodsOut . writeShort (maxLocals);
+      methodsOut . writeInt (length);
+      methodsOut . write (code, 0, length);
+      methodsOut . writeShort (0);              // exception table
+      methodsOut . writeShort (0);              // attributes
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+    methodCount++;
+  }
+
+  public byte [] toByteArray () {
+    int thisClass = classRef (name);
+    int superClass = classRef ("java/lang/Object");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+    DataOutputStream out = new DataOutputStream (bytes);
+    try {
+      out . writeInt (0xCAFEBABE);
+      out . writeShort (0);
+      out . writeShort (VERSION);
+      out . writeShort (poolCount);
+      pool . writeTo (out);
+      out . writeShort (ACC_FINAL | ACC_SUPER);
+      out . writeShort (thisClass);
+      out . writeShort (superClass);
+      out . writeShort (0);                     // interfaces
+      out . writeShort (0);                     // fields
+      out . writeShort (methodCount);
+      methods . writeTo (out);
+      out . writeShort (0);                     // attributes
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+    return bytes . toByteArray ();
+  }
+
+}
@@ -0,0 +1,65 @@
+// Client.java
+
+// Client is a connection to a Server, over which programs are sent to run
+// one after the other.  Run from the command line, it sends one program
+// file, with its standard input as the program's input, prints what the
+// program printed, and exits with status 1 if the job failed.
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+
+public class Client implements Closeable {
+
+  protected Socket socket;
+  protected InputStream in;
+  protected OutputStream out;
+
+  public Client (String host, int port) throws IOException {
+    socket = new Socket (host, port);
+    socket . setTcpNoDelay (true);
+    in = new BufferedInputStream (socket . getInputStream ());
+    out = new BufferedOutputStream (socket . getOutputStream ());
+  }
+
+  // runs source on input at the server and waits for the result
+
+  public Server.Result run (byte [] source, byte [] input) throws IOException {
+    out . write (Server . bytes ("RUN " + source . length + " " + input . length + "\n"));
+    out . write (source);
+    out . write (input);
+    out . flush ();
+    String header = Server . line (in);
+    if (header == null)
+      throw new EOFException ("server closed the connection");
+    int space = header . indexOf (' ');
+    byte [] output = in . readNBytes (Integer . parseInt (header . substring (space + 1)));
+    return new Server.Result (header . startsWith ("OK "), output);
+  }
+
+  public void close () throws IOException {
+    socket . close ();
+  }
+
+  public static void main (String args []) throws IOException {
+    int port = Server . PORT;
+    int arg = 0;
+    if (args . length > 1 && args [0] . equals ("-port")) {
+      port = Integer . parseInt (args [1]);
+      arg = 2;
+    }
+    if (arg != args . length - 1) {
+      System . err . println ("USAGE: java Client [-port n] program.py < input");
+      System . exit (2);
+    }
+    Server.Result result;
+    try (Client client = new Client ("localhost", port)) {
+      result = client . run (Files . readAllBytes (Paths . get (args [arg])),
+                             System . in . readAllBytes ());
+    }
+    System . out . write (result . output);
+    System . out . flush ();
+    System . exit (result . ok ? 0 : 1);
+  }
+
+}
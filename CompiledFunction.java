@@ -0,0 +1,55 @@
+// CompiledFunction.java
+
+// CompiledFunction is a class to represent one MicroPython function lowered
+// to bytecode: a flat instruction array, an int constant pool, the table of
+// callee functions and the number of local slots its frame needs.  The formal
+// parameters occupy the first arity slots.  After the locals come the
+// temporaries of the register instructions and then a slot for each int
+// constant they use, which a call fills in from constants; the operand
+// stack starts at frameSize.
+
+public class CompiledFunction {
+
+  public String id;
+  public int index;                     // Store . index of the definition
+  public boolean memoizable;            // served by the Memo, if there is one
+  public int arity;
+  public int localCount;
+  public int temporaries;
+  public int [] constants;              // of the constant registers
+  public int frameSize;                 // locals, temporaries and constants
+  public int maxStack;
+  public int [] code;
+  public int [] intPool;
+  public CompiledFunction [] functions;
+  public String [] localNames;
+
+  public CompiledFunction (String id) {
+    this . id = id;
+  }
+
+  public String toString () {
+    StringBuilder sb = new StringBuilder ();
+    sb.append(id).append(" (arity ").append(arity).append(", locals ")
+      .append(localCount).append(", stack ").append(maxStack).append(")\n");
+    int pc = 0;
+    while (pc < code.length) {
+      int op = code[pc];
+      sb.append(String.format("%5d  %-10s", pc, Opcode.toString(op)));
+      switch (op) {
+        case Opcode.PUSH_INT : sb.append(intPool[code[pc + 1]]); break;
+        case Opcode.LOAD     :
+        case Opcode.STORE    : sb.append(localNames[code[pc + 1]]); break;
+        case Opcode.CALL     : sb.append(functions[code[pc + 1]].id)
+                                 .append(" ").append(code[pc + 2]); break;
+        default :
+          for (int i = 1; i <= Opcode.operandCount(op); i++)
+            sb.append(code[pc + i]).append(" ");
+      }
+      sb.append("\n");
+      pc += 1 + Opcode.operandCount(op);
+    }
+    return sb.toString();
+  }
+
+}
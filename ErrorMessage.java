@@ -1,19 +1,42 @@
 // ErrorMessage class
-// This class prints error messages.
+// This class reports errors.  An error in a program ends only that program:
+// it is thrown as an Abort, a LexicalError or ParseError at a line and
+// column of the source, or a RuntimeError, for the host running the program
+// to catch.  MicPyInt reports it with print (Abort); a Server sends it back
+// and goes on with the next job.  Only an error in the command line of a
+// program such as MicPyInt, before anything runs, ends the process.
 
 public class ErrorMessage {
 
+  public static class Abort extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public Abort (String message) {
+      super (message);
+    }
+  }
+
+  // reports an error in the command line and exits
+
   public static void print (String message) {
     System . out . println ("***** Error: " + message + " *****");
     System . exit (0);
   }
 
-  public static void print (int position, String message) {
-    System . out . println ();
-    for (int i = 0; i < position; i++) 
-      System . out . print (" ");
-    System . out . println ("^");
-    print (message);
+  // reports error as the command line interpreter does: an error in the
+  // source under a caret at its column in the listing if one was printed,
+  // and with its line and column otherwise
+
+  public static void print (Abort error, boolean listed) {
+    String message = error . getMessage ();
+    if (error instanceof SourceError && listed) {
+      System . out . println ();
+      for (int i = 0; i < ((SourceError) error) . column; i++)
+        System . out . print (" ");
+      System . out . println ("^");
+      message = ((SourceError) error) . error;
+    }
+    System . out . println ("***** Error: " + message + " *****");
   }
 
 }
@@ -0,0 +1,116 @@
+// Inliner.java
+
+// Inliner is a class to substitute the bodies of small functions for calls
+// of them, before the calling function is resolved.  A call is inlined if
+// its callee is defined, is not main, cannot call itself directly or
+// through other functions, takes as many parameters as the call passes,
+// and has at most maxCallee nodes, and if the caller stays within maxCaller
+// nodes.  The callee's parameters and locals become fresh locals of the
+// caller, one set per call site, named callee.site.local so that they
+// cannot clash with the caller's own; the arguments are assigned to the
+// parameters in order, as a call would bind them.  Functions are inlined
+// into callees before callers, so what is substituted is the callee as
+// already resolved, typed, folded and inlined itself.  Each node's copy and
+// inline methods do their own part; this class holds the caller and counts
+// what was inlined for the report.
+
+import java.util.*;
+
+public class Inliner {
+
+  protected CallGraph graph;
+  protected int maxCallee, maxCaller;
+  protected Store caller;                       // the function being inlined into
+  protected Store callee;                       // the function being copied
+  protected int size;                           // nodes of the caller so far
+  protected int site;                           // call sites inlined, for names
+  protected TreeMap<String,Integer> inlined;    // "callee into caller" to count
+
+  public Inliner (CallGraph graph, int maxCallee, int maxCaller) {
+    this . graph = graph;
+    this . maxCallee = maxCallee;
+    this . maxCaller = maxCaller;
+    inlined = new TreeMap<String,Integer> ();
+  }
+
+  // the functions in an order in which every non-recursive callee comes
+  // before its callers
+
+  public List<Store> order (List<Store> functions) {
+    TreeMap<String,Store> byId = new TreeMap<String,Store> ();
+    for (Store fstore : functions)
+      byId . put (fstore . id, fstore);
+    LinkedHashSet<Store> order = new LinkedHashSet<Store> ();
+    HashSet<Store> seen = new HashSet<Store> ();
+    for (Store fstore : functions)
+      visit (fstore, byId, seen, order);
+    return new ArrayList<Store> (order);
+  }
+
+  private void visit (Store fstore, Map<String,Store> byId, Set<Store> seen,
+                      Set<Store> order) {
+    if (!seen . add (fstore))
+      return;
+    for (String id : graph . callees (fstore . id)) {
+      Store f = byId . get (id);
+      if (f != null)
+        visit (f, byId, seen, order);
+    }
+    order . add (fstore);
+  }
+
+  public void inline (Store fstore) {
+    caller = fstore;
+    size = fstore . func_body . nodes ();
+    fstore . func_body = fstore . func_body . inline (this);
+  }
+
+  // the call with its callee's body substituted, or the call itself if it
+  // is not to be inlined
+
+  public Expression expand (FunctionCall call) {
+    Store f = caller . get_f (call . id);
+    int argumentCount = (call . actualParameters == null)
+                        ? 0 : call . actualParameters . size ();
+    if (f == null || f . func_body == null || f == caller
+        || graph . recursive (f . id) || f . arg_list . size () != argumentCount)
+      return call;
+    Statement [] stmts = f . func_body . stmts;
+    if (!(stmts [stmts . length - 1] instanceof ReturnStatement))
+      return call;
+    int n = f . func_body . nodes ();
+    if (n > maxCallee || size + n > maxCaller)
+      return call;
+    size += n;
+    site++;
+    callee = f;
+    ArrayList<Statement> body = new ArrayList<Statement> ();
+    for (int i = 0; i < f . arg_list . size (); i++)
+      body . add (new Assignment (new Identifier (rename (f . arg_list . get (i))),
+                                  call . actualParameters . get (i)));
+    for (int i = 0; i < stmts . length - 1; i++)
+      body . add (stmts [i] . copy (this));
+    Expression result =
+      ((ReturnStatement) stmts [stmts . length - 1]) . exp . copy (this);
+    inlined . merge (f . id + " into " + caller . id, 1, Integer::sum);
+    return new InlinedCall (f . id, new Statement (body), result);
+  }
+
+  // the caller's local standing for the callee's local id at this call
+  // site, declared with the type id has in the callee
+
+  public String rename (String id) {
+    String name = callee . id + "." + site + "." + id;
+    caller . declare (name, callee . type (callee . slot (id)));
+    return name;
+  }
+
+  public String report () {
+    StringBuilder sb = new StringBuilder ();
+    for (Map.Entry<String,Integer> e : inlined . entrySet ())
+      sb . append ("inline: " + e . getKey () + " (" + e . getValue ()
+                   + (e . getValue () == 1 ? " call)\n" : " calls)\n"));
+    return sb . toString ();
+  }
+
+}
@@ -0,0 +1,110 @@
+// InputSource.java
+
+// InputSource is a class to read the ints consumed by the input() calls of
+// a MicroPython program.  One InputSource serves a whole run, so input read
+// ahead for one call is still there for the next.  Ints are picked out of a
+// byte buffer by hand: whitespace separates them and each is an optional
+// sign followed by decimal digits.  The buffer is refilled from a channel
+// (standard input or a file) as it runs out, or holds all of the input from
+// the start (a memory-mapped file or an array).
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+public class InputSource {
+
+  public static final int CAPACITY = 1 << 16;
+
+  protected ByteBuffer buffer;
+  protected ReadableByteChannel channel;        // null once it is exhausted
+
+  protected InputSource (ByteBuffer buffer, ReadableByteChannel channel) {
+    this . buffer = buffer;
+    this . channel = channel;
+  }
+
+  public static InputSource of (InputStream stream) {
+    return new InputSource (ByteBuffer . allocate (CAPACITY) . flip (),
+                            Channels . newChannel (stream));
+  }
+
+  public static InputSource of (byte [] bytes) {
+    return new InputSource (ByteBuffer . wrap (bytes), null);
+  }
+
+  public static InputSource file (String name) throws IOException {
+    return new InputSource (ByteBuffer . allocateDirect (CAPACITY) . flip (),
+                            FileChannel . open (Paths . get (name)));
+  }
+
+  public static InputSource mapped (String name) throws IOException {
+    try (FileChannel file = FileChannel . open (Paths . get (name))) {
+      return new InputSource (
+        file . map (FileChannel . MapMode . READ_ONLY, 0, file . size ()), null);
+    }
+  }
+
+  // Reads the next int, throwing NoSuchElementException at the end of the
+  // input and InputMismatchException if the next word is not an int.
+
+  public int nextInt () {
+    int c = read ();
+    while (c == ' ' || c == '\n' || c == '\t' || c == '\r')
+      c = read ();
+    if (c < 0)
+      throw new NoSuchElementException ("end of input");
+    boolean negative = c == '-';
+    if (c == '-' || c == '+')
+      c = read ();
+    if (c < '0' || c > '9')
+      throw new InputMismatchException ("int expected");
+    // accumulated negated, so that Integer . MIN_VALUE fits
+    int value = 0;
+    for (; c >= '0' && c <= '9'; c = read ()) {
+      int digit = c - '0';
+      if (value < (Integer . MIN_VALUE + digit) / 10)
+        throw new InputMismatchException ("int out of range");
+      value = 10 * value - digit;
+    }
+    if (c >= 0 && c != ' ' && c != '\n' && c != '\t' && c != '\r')
+      throw new InputMismatchException ("int expected");
+    if (!negative) {
+      if (value == Integer . MIN_VALUE)
+        throw new InputMismatchException ("int out of range");
+      value = -value;
+    }
+    return value;
+  }
+
+  // the next byte, or -1 at the end of the input
+
+  private int read () {
+    if (!buffer . hasRemaining () && !fill ())
+      return -1;
+    return buffer . get () & 0xff;
+  }
+
+  private boolean fill () {
+    if (channel == null)
+      return false;
+    buffer . clear ();
+    try {
+      int n;
+      do
+        n = channel . read (buffer);
+      while (n == 0);
+      if (n < 0)
+        channel = null;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException (e);
+    }
+    buffer . flip ();
+    return buffer . hasRemaining ();
+  }
+
+}
@@ -0,0 +1,271 @@
+// Interpreter.java
+
+// Interpreter is a class to run a parsed MicroPython Module.  Everything a
+// run changes lives here rather than in the Module: the InputSource, the
+// Output sink, the call depth, and for each function a pool of activation
+// Stores, one per level of recursion, reused from call to call, and the
+// Memo of pure function values if the options ask for one.  Each run of a
+// Module gets an Interpreter of its own.  With -jit the functions that
+// JvmCompiler can compile run as JVM code, and the rest as trees; with
+// -tiered, Tiers compiles them only once they get hot.  Either way the code
+// is kept in the Module's JvmCode, for its later runs to start with.  A run may be held
+// to a number of steps, loop iterations and calls, and of list elements it
+// writes; going over either limit ends it with a LimitExceeded.
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.*;
+
+public class Interpreter {
+
+  protected Module module;
+  protected Options options;
+  public InputSource input;
+  public Output output;
+  protected CallStack calls;
+  protected Store [][] pools;                   // indexed by Store . index
+  protected int [] active;
+  public Memo memo;                             // null unless memoizing
+  public MethodHandle [] compiled;              // by Store . index; null unless -jit
+  protected JvmCode code;                       // null unless -jit or -tiered
+  public Tiers tiers;                           // null unless -tiered
+  protected long steps;                         // left before the step limit
+  protected long cells;                         // left before the list limit
+
+  public Interpreter (Module module, InputSource input, Output output,
+                      Options options) {
+    this . module = module;
+    this . input = input;
+    this . output = output;
+    this . options = options;
+    calls = new CallStack (options . maxCallDepth);
+    steps = (options . steps > 0) ? options . steps : Long . MAX_VALUE;
+    cells = (options . cells > 0) ? options . cells : Long . MAX_VALUE;
+    pools = new Store [module . size ()] [];
+    active = new int [module . size ()];
+    if (options . memo > 0)
+      memo = new Memo (options . memo, module . size ());
+    if ((options . jit || options . tiered) && !options . bytecode) {
+      code = module . code (options . steps > 0, memo != null);
+      compiled = code . handles;
+    }
+    if (options . jit && !options . bytecode)
+      compile ();
+    if (options . tiered && !options . bytecode)
+      tiers = new Tiers (this, module, code, skip (), options);
+  }
+
+  // compiles what JvmCompiler can, unless an earlier run of the Module
+  // has; the functions a Memo serves are left to the tree interpreter,
+  // which consults it
+
+  private void compile () {
+    JvmCompiler jvm;
+    synchronized (code) {
+      if (code . compiled)
+        return;
+      jvm = new JvmCompiler (module, options . steps > 0);
+      code . install (jvm . compile (skip ()));
+      code . compiled = true;
+    }
+    if (options . report && options . runReports) {
+      System . err . println ("jit: " + jvm . compiled ());
+      for (Map.Entry<String,String> e : jvm . reasons () . entrySet ())
+        System . err . println ("jit: " + e . getKey () + " interpreted: " + e . getValue ());
+    }
+  }
+
+  public static Object run (Module module, InputStream input, PrintStream output) {
+    return run (module, input, output, new Options ());
+  }
+
+  // output is buffered if the options ask for it, and written to value by
+  // value otherwise
+
+  public static Object run (Module module, InputStream input, PrintStream output,
+                            Options options) {
+    return run (module, InputSource . of (input), output, options);
+  }
+
+  public static Object run (Module module, InputSource input, PrintStream output,
+                            Options options) {
+    Output sink = options . bufferedOutput ? new BufferedOutput (output)
+                                           : Output . of (output);
+    return new Interpreter (module, input, sink, options) . run ();
+  }
+
+  // Runs main on the backend the options select, prints its result and
+  // returns it.  All output is written out before run returns.  Any error
+  // of the program is thrown as an ErrorMessage.Abort.
+
+  public Object run () {
+    Store main = module . main ();
+    if (main == null)
+      error ("main UNDEFINED");
+    try {
+      Object result;
+      if (options . bytecode) {
+        CompiledFunction entry = new BytecodeCompiler (module) . compile (main);
+        result = new VirtualMachine (this) . run (entry);
+      }
+      else if (isCompiled (main))
+        result = invoke (main, new int [0]);
+      else
+        result = main . func_body . semantics (main . activation (this));
+      output . println (result);
+      return result;
+    }
+    finally {
+      output . flush ();
+      if (memo != null && options . runReports)
+        System . err . print (memo . report (module));
+    }
+  }
+
+  // the int a call of input() reads, after the prompt unless the options
+  // leave it out
+
+  public int readInt () {
+    if (options . prompt)
+      output . print ("Input>>");
+    output . flush ();
+    try {
+      return input . nextInt ();
+    }
+    catch (NoSuchElementException e) {
+      throw new RuntimeError (e . getMessage (), e);
+    }
+    catch (UncheckedIOException e) {
+      throw new RuntimeError ("input failed: " + e . getCause () . getMessage (), e);
+    }
+  }
+
+  // a // b, or a RuntimeError if b is 0: for JVM code, whose idiv would
+  // throw
+
+  public int divide (int a, int b) {
+    if (b == 0)
+      error ("division by zero");
+    return a / b;
+  }
+
+  // stops the run with a RuntimeError, after the output printed so far
+
+  public void error (String message) {
+    output . flush ();
+    throw new RuntimeError (message);
+  }
+
+  // stops the run store is an activation of with a RuntimeError; with no
+  // run, as when the Optimizer folds constants, just throws it
+
+  public static void error (Store store, String message) {
+    if (store == null || store . interpreter == null)
+      throw new RuntimeError (message);
+    store . interpreter . error (message);
+  }
+
+  private Set<Store> skip () {
+    Set<Store> skip = new HashSet<Store> ();
+    if (memo != null)
+      for (Store fstore : module . functions ())
+        if (fstore . memoizable)
+          skip . add (fstore);
+    return skip;
+  }
+
+  // runs the compiled code of def
+
+  public int invoke (Store def, int [] args) {
+    try {
+      return (int) compiled [def . index] . invokeExact (this, args);
+    }
+    catch (RuntimeException | Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new UndeclaredThrowableException (e);
+    }
+  }
+
+  public boolean isCompiled (Store def) {
+    return compiled != null && compiled [def . index] != null;
+  }
+
+  // a call of compiled code, counted against the call depth limit as an
+  // interpreted one is
+
+  public void enter (int function) {
+    step ();
+    if (!calls . push ())
+      error ("call depth limit " + calls . limit () + " exceeded in "
+             + module . functions () . get (function) . id);
+  }
+
+  public void leave () {
+    calls . pop ();
+  }
+
+  // counts a loop iteration or a call against the step limit
+
+  public void step () {
+    if (--steps < 0)
+      throw overSteps ();
+  }
+
+  public LimitExceeded overSteps () {
+    return new LimitExceeded ("step", options . steps);
+  }
+
+  // counts n list elements written against the list limit
+
+  public void allocate (int n) {
+    if ((cells -= n) < 0)
+      throw new LimitExceeded ("list cell", options . cells);
+  }
+
+  // the next free activation record of the function def
+
+  public Store acquire (Store def) {
+    step ();
+    if (!calls . push ())
+      error ("call depth limit " + calls . limit () + " exceeded in " + def . id);
+    int f = def . index;
+    Store [] pool = pools [f];
+    int n = active [f];
+    if (pool == null)
+      pool = pools [f] = new Store [4];
+    else if (n == pool . length)
+      pool = pools [f] = Arrays . copyOf (pool, 2 * n);
+    Store s = pool [n];
+    if (s == null)
+      s = pool [n] = def . activation (this);
+    active [f] = n + 1;
+    return s;
+  }
+
+  public void release (Store def) {
+    int f = def . index;
+    Arrays . fill (pools [f] [--active [f]] . frame, null);
+    calls . pop ();
+  }
+
+  // makes the activation a TailCall acquired on top of the current one
+  // take the current one's place, and returns it
+
+  public Store shift (Store def) {
+    Store [] pool = pools [def . index];
+    int n = active [def . index];
+    Store current = pool [n - 2];
+    Store next = pool [n - 1];
+    current . next = null;
+    pool [n - 2] = next;
+    pool [n - 1] = current;
+    release (def);
+    return next;
+  }
+
+}
@@ -0,0 +1,39 @@
+// JvmCode.java
+
+// JvmCode is a class to hold the JVM code compiled for the functions and
+// loops of one Module, and the counts Tiers keeps to decide when to
+// compile them, so that every run of the Module shares them: a Server
+// serving the same program again runs the code its earlier jobs compiled,
+// rather than defining the same hidden classes anew and starting cold.
+// Code compiled with step counting, or leaving out the functions a Memo
+// serves, differs, so a Module keeps one JvmCode for each; see
+// Module . code.  Runs on several threads may use one JvmCode at once: a
+// handle is installed at most once and, being immutable, may be read
+// without a lock, and a count reaches hot on one call only.
+
+import java.lang.invoke.MethodHandle;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public final class JvmCode {
+
+  public final MethodHandle [] handles;         // by Store . index; null if interpreted
+  protected final AtomicIntegerArray calls;     // by Store . index
+  protected final IdentityHashMap<WhileStatement,MethodHandle> loops; // null if it failed
+  protected boolean compiled;                   // compiled whole, for -jit
+
+  public JvmCode (int size) {
+    handles = new MethodHandle [size];
+    calls = new AtomicIntegerArray (size);
+    loops = new IdentityHashMap<WhileStatement,MethodHandle> ();
+  }
+
+  // adds compiled functions to those run as JVM code
+
+  public synchronized void install (MethodHandle [] compiled) {
+    for (int i = 0; i < compiled . length; i++)
+      if (compiled [i] != null && handles [i] == null)
+        handles [i] = compiled [i];
+  }
+
+}
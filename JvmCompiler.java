@@ -0,0 +1,496 @@
+// JvmCompiler.java
+
+// JvmCompiler is a class to compile the functions of a Module to JVM
+// bytecode, as static methods of one hidden class defined at run time, so
+// that HotSpot compiles them like any other Java code.  A function compiles
+// if its parameters, locals and result are all ints and its body uses only
+// int operations, print, input() and calls of functions that compile too;
+// the others, and everything to do with lists, stay with the tree
+// interpreter.  Each int local is a JVM int local, after the Interpreter
+// that runs the method in local 0; while loops and calls of the function
+// itself in tail position are backward branches.  A compiled function
+// called from interpreted code is reached through a MethodHandle.  Each
+// node's generate method emits its own code; this class holds the method
+// being emitted.
+
+import java.lang.invoke.*;
+import java.util.*;
+
+public class JvmCompiler {
+
+  public static final String CLASS = "MicPyCode";
+  public static final String OSR = "loop$";     // not a MicroPython name
+
+  // JVM opcodes
+  public static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18,
+    LDC_W = 19, ILOAD = 21, ALOAD = 25, ALOAD_0 = 42, IALOAD = 46, ISTORE = 54,
+    ASTORE = 58, IASTORE = 79, IADD = 96, ISUB = 100,
+    IMUL = 104, IDIV = 108, INEG = 116, IFEQ = 153, IFNE = 154,
+    IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162,
+    IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167, IRETURN = 172, RETURN = 177,
+    GETFIELD = 180, INVOKEVIRTUAL = 182, INVOKESTATIC = 184, WIDE = 196;
+
+  // the if_icmp instruction that jumps when compare does not
+  public static int negate (int compare) {
+    return IF_ICMPEQ + ((compare - IF_ICMPEQ) ^ 1);
+  }
+
+  // thrown by a node that cannot be compiled
+  static final class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported (String message) { super (message, null, false, false); }
+  }
+
+  protected Module module;
+  protected Set<Store> functions;               // the functions that compile
+  protected ClassFile file;
+  protected Store fstore;                       // the function being compiled
+  protected byte [] code = new byte [256];
+  protected int pc, depth, maxDepth;
+  protected int start;                          // where a tail call jumps
+  protected TreeMap<String,String> reasons = new TreeMap<String,String> ();
+  protected CallGraph graph;                    // made on first use
+  protected boolean osr;                        // emitting a loop on its own
+  protected boolean counted;                    // the run has a step limit
+  protected MethodHandle [] handles;
+
+  public JvmCompiler (Module module) {
+    this . module = module;
+  }
+
+  // a compiler of code that counts the iterations of loops and tail calls
+  // as steps against the limit of the run, if counted
+
+  public JvmCompiler (Module module, boolean counted) {
+    this (module);
+    this . counted = counted;
+  }
+
+  // Compiles every function of the module that can be, and returns a
+  // handle taking the Interpreter and the arguments as an int [] for each,
+  // by Store . index, null for those that stay interpreted.  skip names
+  // functions not to compile.
+
+  public MethodHandle [] compile (Set<Store> skip) {
+    return compile (skip, module . functions ());
+  }
+
+  // the same for roots and the functions they call, directly or not
+
+  public MethodHandle [] compile (Set<Store> skip, Collection<Store> roots) {
+    select (skip, reachable (roots));
+    build ();
+    MethodHandles.Lookup lookup = define ();
+    return (lookup == null) ? new MethodHandle [module . size ()] : handles (lookup);
+  }
+
+  // Compiles loop, a while statement of the function f, on its own for
+  // on-stack replacement, with the functions f calls that compile.  The
+  // handle returned takes the Interpreter and the int locals of the
+  // activation running the loop; it runs the loop to its end, starting with
+  // the test, and leaves the locals as the loop leaves them.  null if the
+  // loop does not compile; handles () then has the callees compiled with it.
+
+  public MethodHandle loop (Set<Store> skip, Store f, WhileStatement loop) {
+    select (skip, reachable (graph () . callees (f . id)));
+    build ();
+    try {
+      osr (f, loop);
+    }
+    catch (Unsupported e) {
+      reasons . put (f . id + " loop", e . getMessage ());
+      return null;
+    }
+    MethodHandles.Lookup lookup = define ();
+    if (lookup == null) {
+      reasons . put (f . id + " loop", reasons . get (CLASS));
+      return null;
+    }
+    handles = handles (lookup);
+    try {
+      return lookup . findStatic (lookup . lookupClass (), OSR,
+        MethodType . methodType (void . class, Interpreter . class, int [] . class));
+    }
+    catch (ReflectiveOperationException e) {
+      reasons . put (f . id + " loop", e . toString ());
+      return null;
+    }
+  }
+
+  // the functions the last loop compiled with it, by Store . index
+
+  public MethodHandle [] handles () { return handles; }
+
+  private CallGraph graph () {
+    if (graph == null)
+      graph = new CallGraph (module . functions ());
+    return graph;
+  }
+
+  private Set<Store> reachable (Collection<Store> roots) {
+    LinkedHashSet<Store> reached = new LinkedHashSet<Store> ();
+    LinkedList<Store> work = new LinkedList<Store> (roots);
+    while (!work . isEmpty ()) {
+      Store f = work . removeFirst ();
+      if (reached . add (f))
+        for (String id : graph () . callees (f . id))
+          if (module . function (id) != null)
+            work . add (module . function (id));
+    }
+    return reached;
+  }
+
+  private Set<Store> reachable (Set<String> ids) {
+    ArrayList<Store> roots = new ArrayList<Store> ();
+    for (String id : ids)
+      if (module . function (id) != null)
+        roots . add (module . function (id));
+    return reachable (roots);
+  }
+
+  private void select (Set<Store> skip, Set<Store> candidates) {
+    functions = new LinkedHashSet<Store> ();
+    reasons . clear ();
+    for (Store f : candidates)
+      if (skip . contains (f))
+        reasons . put (f . id, "memoized");
+      else if (!intsOnly (f))
+        reasons . put (f . id, "values that are not ints");
+      else
+        functions . add (f);
+  }
+
+  // a function compiles only if its callees do, so drop the functions that
+  // fail until all that remain compile
+
+  private void build () {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      file = new ClassFile (CLASS);
+      for (Iterator<Store> i = functions . iterator (); i . hasNext (); ) {
+        Store f = i . next ();
+        try {
+          method (f);
+        }
+        catch (Unsupported e) {
+          reasons . put (f . id, e . getMessage ());
+          i . remove ();
+          changed = true;
+        }
+      }
+    }
+  }
+
+  // the class built, or null if the JVM does not take it
+
+  private MethodHandles.Lookup define () {
+    try {
+      return MethodHandles . lookup () . defineHiddenClass (file . toByteArray (), true);
+    }
+    catch (IllegalAccessException | LinkageError e) {
+      reasons . put (CLASS, e . toString ());
+      for (Store f : functions)
+        reasons . put (f . id, e . toString ());
+      functions . clear ();
+      return null;
+    }
+  }
+
+  private MethodHandle [] handles (MethodHandles.Lookup lookup) {
+    MethodHandle [] handles = new MethodHandle [module . size ()];
+    try {
+      for (Store f : functions) {
+        Class<?> [] parameters = new Class<?> [1 + f . arg_list . size ()];
+        parameters [0] = Interpreter . class;
+        Arrays . fill (parameters, 1, parameters . length, int . class);
+        handles [f . index] = lookup
+          . findStatic (lookup . lookupClass (), f . id,
+                        MethodType . methodType (int . class, parameters))
+          . asSpreader (int [] . class, f . arg_list . size ());
+      }
+    }
+    catch (ReflectiveOperationException e) {
+      for (Store f : functions)
+        reasons . put (f . id, e . toString ());
+      functions . clear ();
+      return new MethodHandle [module . size ()];
+    }
+    return handles;
+  }
+
+  public Set<String> compiled () {
+    TreeSet<String> ids = new TreeSet<String> ();
+    for (Store f : functions)
+      ids . add (f . id);
+    return ids;
+  }
+
+  // why each function that stays interpreted does
+
+  public Map<String,String> reasons () { return reasons; }
+
+  private static boolean intsOnly (Store f) {
+    if (f . returnType != Type . INT)
+      return false;
+    for (int i = 0; i < f . localCount (); i++)
+      if (f . type (i) != Type . INT)
+        return false;
+    return true;
+  }
+
+  private static String descriptor (Store f) {
+    StringBuilder sb = new StringBuilder ("(LInterpreter;");
+    for (int i = 0; i < f . arg_list . size (); i++)
+      sb . append ('I');
+    return sb . append (")I") . toString ();
+  }
+
+  // Emits the method for f: the call depth is counted as for an
+  // interpreted call, except in main, and the locals that are not
+  // parameters start at 0.
+
+  private void method (Store f) {
+    fstore = f;
+    pc = depth = maxDepth = 0;
+    if (!isMain ()) {
+      emit (ALOAD_0, 1);
+      iconst (f . index);
+      invoke (INVOKEVIRTUAL, "Interpreter", "enter", "(I)V", -2);
+    }
+    for (int i = f . arg_list . size (); i < f . localCount (); i++) {
+      iconst (0);
+      istore (i);
+    }
+    start = pc;
+    f . func_body . generate (this);
+    if (pc > 0xffff)
+      fail (f . id + " too long");
+    file . method (ClassFile . ACC_STATIC, f . id, descriptor (f), maxDepth,
+                   1 + f . localCount (), code, pc);
+  }
+
+  // Emits the method for loop in f: the int locals come in from an array,
+  // kept after them, and go back to it when the loop ends.  The loop never
+  // touches the other locals, or it would not compile.
+
+  private void osr (Store f, WhileStatement loop) {
+    fstore = f;
+    osr = true;
+    pc = depth = maxDepth = 0;
+    int array = 1 + f . localCount ();         // past the locals it arrives among
+    local (ALOAD, 1, 1);
+    local (ASTORE, array, -1);
+    for (int i = 0; i < f . localCount (); i++)
+      if (f . type (i) == Type . INT) {
+        local (ALOAD, array, 1);
+        iconst (i);
+        emit (IALOAD, -1);
+        istore (i);
+      }
+    try {
+      loop . generate (this);
+    }
+    finally {
+      osr = false;
+    }
+    for (int i = 0; i < f . localCount (); i++)
+      if (f . type (i) == Type . INT) {
+        local (ALOAD, array, 1);
+        iconst (i);
+        iload (i);
+        emit (IASTORE, -3);
+      }
+    emit (RETURN, 0);
+    file . method (ClassFile . ACC_STATIC, OSR, "(LInterpreter;[I)V", maxDepth,
+                   array + 1, code, pc);
+  }
+
+  public boolean isMain () {
+    return fstore == module . main ();
+  }
+
+  public void unsupported (Object node) {
+    fail (node . getClass () . getName ());
+  }
+
+  public void fail (String reason) {
+    throw new Unsupported (reason);
+  }
+
+  // the definition of the function id if it compiles, and unsupported
+  // otherwise
+
+  public Store callee (String id, int argumentCount) {
+    Store f = fstore . get_f (id);
+    if (f == null || !functions . contains (f)
+        || f . arg_list . size () != argumentCount)
+      fail ("call of " + id);
+    return f;
+  }
+
+  // code emission; delta is the change in the operand stack depth
+
+  public void emit (int opcode, int delta) {
+    u1 (opcode);
+    stack (delta);
+  }
+
+  public void stack (int delta) {
+    depth += delta;
+    maxDepth = Math . max (maxDepth, depth);
+  }
+
+  public void iconst (int value) {
+    if (value >= -1 && value <= 5)
+      emit (ICONST_0 + value, 1);
+    else if (value >= Byte . MIN_VALUE && value <= Byte . MAX_VALUE) {
+      emit (BIPUSH, 1);
+      u1 (value);
+    }
+    else if (value >= Short . MIN_VALUE && value <= Short . MAX_VALUE) {
+      emit (SIPUSH, 1);
+      u2 (value);
+    }
+    else {
+      int index = file . integer (value);
+      if (index <= 0xff) {
+        emit (LDC, 1);
+        u1 (index);
+      }
+      else {
+        emit (LDC_W, 1);
+        u2 (index);
+      }
+    }
+  }
+
+  public void iload (int slot) { local (ILOAD, slot + 1, 1); }
+
+  public void istore (int slot) { local (ISTORE, slot + 1, -1); }
+
+  private void local (int opcode, int local, int delta) {
+    if (local <= 0xff) {
+      emit (opcode, delta);
+      u1 (local);
+    }
+    else {
+      u1 (WIDE);
+      emit (opcode, delta);
+      u2 (local);
+    }
+  }
+
+  public void invoke (int opcode, String owner, String name, String descriptor,
+                      int delta) {
+    emit (opcode, delta);
+    u2 (file . methodRef (owner, name, descriptor));
+  }
+
+  public void getfield (String owner, String name, String descriptor) {
+    emit (GETFIELD, 0);
+    u2 (file . fieldRef (owner, name, descriptor));
+  }
+
+  // a call of f, whose arguments are on the stack after the Interpreter
+
+  public void call (Store f) {
+    invoke (INVOKESTATIC, CLASS, f . id, descriptor (f), -f . arg_list . size ());
+  }
+
+  // a step at a loop's back edge or a tail call, if they are counted;
+  // other calls are counted by Interpreter . enter
+
+  public void step () {
+    if (!counted)
+      return;
+    emit (ALOAD_0, 1);
+    invoke (INVOKEVIRTUAL, "Interpreter", "step", "()V", -1);
+  }
+
+  // returns the value on the stack from the function, after counting the
+  // call as returned
+
+  public void ireturn () {
+    if (osr)
+      fail ("return in loop");
+    if (!isMain ()) {
+      emit (ALOAD_0, 1);
+      invoke (INVOKEVIRTUAL, "Interpreter", "leave", "()V", -1);
+    }
+    emit (IRETURN, -1);
+  }
+
+  // a conditional jump, popping pops operands, to be patched; returns its
+  // position
+
+  public int emitJump (int opcode, int pops) {
+    int at = pc;
+    emit (opcode, -pops);
+    u2 (0);
+    return at;
+  }
+
+  // a jump back to target
+
+  public void jump (int opcode, int target) {
+    int at = pc;
+    emit (opcode, 0);
+    offset (at, target);
+  }
+
+  public int pc () { return pc; }
+
+  public int start () {
+    if (osr)
+      fail ("tail call in loop");
+    return start;
+  }
+
+  // makes the jumps at the given positions go to the current position
+
+  public void patch (List<Integer> jumps) {
+    for (int at : jumps)
+      patch (at);
+  }
+
+  public void patch (int at) {
+    int save = pc;
+    pc = at + 1;
+    offset (at, save);
+    pc = save;
+  }
+
+  private void offset (int at, int target) {
+    int offset = target - at;
+    if (offset < Short . MIN_VALUE || offset > Short . MAX_VALUE)
+      fail (fstore . id + " too long");
+    u2 (offset);
+  }
+
+  // the 0 or 1 value of a test
+
+  public void booleanValue (Expression e) {
+    ArrayList<Integer> toFalse = new ArrayList<Integer> ();
+    e . generateTest (this, false, toFalse);
+    iconst (1);
+    int end = emitJump (GOTO, 0);
+    stack (-1);
+    patch (toFalse);
+    iconst (0);
+    patch (end);
+  }
+
+  private void u1 (int b) {
+    if (pc == code . length)
+      code = Arrays . copyOf (code, 2 * pc);
+    code [pc++] = (byte) b;
+  }
+
+  private void u2 (int u) {
+    u1 (u >> 8);
+    u1 (u);
+  }
+
+}
@@ -0,0 +1,97 @@
+// LexerBenchmark.java
+
+// This program measures how fast the lexer scans MicroPython source, silent
+// and with the source listing on.  It scans the given programs, or else a
+// generated script of the requested size, several times in each mode, with
+// the listing written to a buffered writer that discards it, and reports
+// the throughput of every run in MB of source per second.
+
+// usage: java LexerBenchmark [-runs n] [-mb n] [program.py ...]
+
+import java.io.*;
+
+public class LexerBenchmark {
+
+  // one function of the generated script; copies differ only in their name
+
+  private static final String FUNCTION =
+    "def f%d (n : int) -> int :\n" +
+    "  # sum the squares of the numbers below n\n" +
+    "  l = MicroPythonList ()\n" +
+    "  i = 0\n" +
+    "  while i < n and not i == 100000 :\n" +
+    "    l = l . cons (i * i // 1)\n" +
+    "    i = i + 1;\n" +
+    "  s = 0\n" +
+    "  while not l . null () :\n" +
+    "    if l . head () >= 0 :\n" +
+    "      s = s + l . head ();\n" +
+    "    else :\n" +
+    "      s = s - 1;\n" +
+    "    l = l . tail ();\n" +
+    "  return s\n\n";
+
+  public static void main (String args []) throws IOException {
+    int runs = 5;
+    int mb = 8;
+    int arg = 0;
+    for (; arg + 1 < args . length && args [arg] . startsWith ("-"); arg += 2) {
+      switch (args [arg]) {
+        case "-runs" : runs = Integer . parseInt (args [arg + 1]); break;
+        case "-mb"   : mb = Integer . parseInt (args [arg + 1]); break;
+        default      : ErrorMessage . print ("Unknown option " + args [arg]);
+      }
+    }
+    if (arg == args . length) {
+      File script = generate (mb);
+      try {
+        scan (script, runs);
+      }
+      finally {
+        script . delete ();
+      }
+    }
+    else
+      for (; arg < args . length; arg++)
+        scan (new File (args [arg]), runs);
+  }
+
+  // a script of about mb megabytes: copies of FUNCTION followed by main
+
+  static File generate (int mb) throws IOException {
+    File script = File . createTempFile ("lexer", ".py");
+    try (Writer out = new BufferedWriter (new FileWriter (script))) {
+      out . write ("from MicroPythonListClass import MicroPythonList\n\n");
+      long size = 0;
+      for (int i = 0; size < ((long) mb << 20); i++) {
+        String function = String . format (FUNCTION, i);
+        out . write (function);
+        size += function . length ();
+      }
+      out . write ("def main () -> int :\n  print (f0 (10))\n  return 0\n");
+    }
+    return script;
+  }
+
+  public static void scan (File file, int runs) throws IOException {
+    System . out . printf ("%s (%.1f MB)%n", file, file . length () / 1048576.0);
+    for (boolean listing : new boolean [] { false, true })
+      for (int i = 0; i < runs; i++) {
+        MicroPythonLexer lexer =
+          new MicroPythonLexer (new InputStreamReader (new FileInputStream (file)));
+        if (listing)
+          lexer . setListing (new PrintWriter (new BufferedWriter (
+            Writer . nullWriter (), 1 << 16)));
+        long tokens = 0;
+        long start = System . nanoTime ();
+        while (lexer . nextToken () . symbol () != Symbol . EOF)
+          tokens++;
+        lexer . flush ();
+        double seconds = (System . nanoTime () - start) / 1e9;
+        System . out . printf ("  %-7s run %d: %8.1f ms %10d tokens %8.1f MB/s%n",
+                               listing ? "listing" : "silent", i + 1, seconds * 1e3,
+                               tokens, file . length () / 1048576.0 / seconds);
+      }
+  }
+
+}
@@ -0,0 +1,14 @@
+// LexicalError.java
+
+// LexicalError is thrown by the lexer at text that is no token, such as a
+// character the language does not use.
+
+public class LexicalError extends SourceError {
+
+  private static final long serialVersionUID = 1L;
+
+  public LexicalError (int line, int column, String error) {
+    super (line, column, error);
+  }
+
+}
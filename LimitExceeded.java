@@ -0,0 +1,21 @@
+// LimitExceeded.java
+
+// LimitExceeded is thrown when a run goes over one of the limits its
+// options set, so that a program that loops or allocates without end stops
+// with an error rather than holding a core or the heap.  It names the
+// resource and its limit, for a host such as Server to act on.
+
+public class LimitExceeded extends RuntimeError {
+
+  private static final long serialVersionUID = 1L;
+
+  public final String resource;                 // "step" or "list cell"
+  public final long limit;
+
+  public LimitExceeded (String resource, long limit) {
+    super (resource + " limit " + limit + " exceeded");
+    this . resource = resource;
+    this . limit = limit;
+  }
+
+}
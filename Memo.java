@@ -0,0 +1,72 @@
+// Memo.java
+
+// Memo is a class to remember the values of calls of pure functions whose
+// parameters are all ints, keyed on the function and its arguments, so that
+// a repeated call returns the remembered value instead of running again.
+// It holds at most capacity values and forgets the least recently used one
+// first.  Hits and misses are counted per function for the report at the
+// end of the run.
+
+import java.util.*;
+
+public class Memo {
+
+  public static final class Key {
+    final int function;                         // Store . index of the callee
+    final int [] args;
+    final int hash;
+
+    public Key (int function, int [] args) {
+      this . function = function;
+      this . args = args;
+      hash = 31 * function + Arrays . hashCode (args);
+    }
+
+    public int hashCode () { return hash; }
+
+    public boolean equals (Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return function == k . function && Arrays . equals (args, k . args);
+    }
+  }
+
+  protected LinkedHashMap<Key,Object> values;
+  protected long [] hits, misses;               // indexed by Store . index
+
+  public Memo (final int capacity, int functionCount) {
+    values = new LinkedHashMap<Key,Object> (16, 0.75f, true) {
+      protected boolean removeEldestEntry (Map.Entry<Key,Object> eldest) {
+        return size () > capacity;
+      }
+    };
+    hits = new long [functionCount];
+    misses = new long [functionCount];
+  }
+
+  // the remembered value, or null
+
+  public Object get (Key key) {
+    Object value = values . get (key);
+    if (value != null)
+      hits [key . function]++;
+    else
+      misses [key . function]++;
+    return value;
+  }
+
+  public void put (Key key, Object value) {
+    values . put (key, value);
+  }
+
+  public String report (Module module) {
+    StringBuilder sb = new StringBuilder ();
+    for (Store fstore : module . functions ())
+      if (hits [fstore . index] + misses [fstore . index] > 0)
+        sb . append ("memo: " + fstore . id + " " + hits [fstore . index] + " hits "
+                     + misses [fstore . index] + " misses\n");
+    return sb . toString ();
+  }
+
+}
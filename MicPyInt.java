@@ -5,22 +5,121 @@
 
 public class MicPyInt {
 
+  // the interpreter's version, part of the key of every cached program
+
+  public static final String VERSION = "1.0";
+
+  // bytes of Java stack reserved per level of MicroPython call nesting for
+  // the tree walker, on top of a fixed base
+
+  private static final long STACK_PER_CALL = 2048;
+  private static final long STACK_BASE = 1 << 20;
+
   public static void main (String args []) throws java.io.IOException {
-    System . out . println ("Source Program");
-    System . out . println ("--------------");
-    System . out . println ();
+    Options options = new Options ();
+    int arg = options . parse (args);
+    start (() -> {
+      try {
+        run (args [arg], options);
+      }
+      catch (java.io.IOException e) {
+        ErrorMessage . print (e . getMessage ());
+      }
+      catch (ErrorMessage.Abort e) {
+        ErrorMessage . print (e, options . listing);
+      }
+    }, options);
+  }
+
+  // Runs body on a thread whose stack can hold maxCallDepth nested calls
+  // and waits for it to finish.
+
+  public static void start (Runnable body, Options options) {
+    Thread interpreter = new Thread (null, body, "MicPyInt", stackSize (options));
+    interpreter . start ();
+    try {
+      interpreter . join ();
+    }
+    catch (InterruptedException e) {
+      Thread . currentThread () . interrupt ();
+    }
+  }
+
+  // the stack a thread running the tree walker needs under options
+
+  public static long stackSize (Options options) {
+    return STACK_BASE + STACK_PER_CALL * options . maxCallDepth;
+  }
+
+  // the input the options name: a file, read or memory-mapped, or stdin
+
+  public static InputSource input (Options options) throws java.io.IOException {
+    if (options . inputFile == null)
+      return InputSource . of (System . in);
+    if (options . mapInput)
+      return InputSource . mapped (options . inputFile);
+    return InputSource . file (options . inputFile);
+  }
+
+  // the Module of file: read from an AST file if it is one, through a
+  // ProgramCache if the options name a cache directory, and parsed
+  // otherwise
+
+  public static Module module (String file, Options options) throws java.io.IOException {
+    if (file . endsWith (AstWriter . EXTENSION)) {
+      Store store = new Store ();
+      java . util . List<Store> functions =
+        AstReader . mapped (java . nio . file . Paths . get (file)) . functions (store);
+      return new ParserAST (options) . module (store, functions);
+    }
+    if (options . cacheDir != null) {
+      ProgramCache cache = new ProgramCache (options);
+      Module module = cache . module (file);
+      if (options . report)
+        System . err . print (cache . report ());
+      return module;
+    }
+    return new ParserAST (file, options) . program ();
+  }
+
+  // Writes the program in file, as parsed, to an AST file beside it, with
+  // the extension .py replaced by .mpa, to be run in place of the source.
+  // Nothing runs, so the source is not listed either.
+
+  public static void precompile (String file, Options options) throws java.io.IOException {
+    options . listing = false;
+    String ast = (file . endsWith (".py") ? file . substring (0, file . length () - 3) : file)
+                 + AstWriter . EXTENSION;
+    java . util . List<Store> functions =
+      new ParserAST (file, options) . functions (new Store ());
+    java . nio . file . Files . write (java . nio . file . Paths . get (ast),
+                                      AstWriter . write (functions));
+  }
+
+  public static void run (String file, Options options) throws java.io.IOException {
+    if (options . precompile) {
+      precompile (file, options);
+      return;
+    }
+    if (options . listing) {
+      System . out . println ("Source Program");
+      System . out . println ("--------------");
+      System . out . println ();
+    }
 
-    ParserAST pl0 = new ParserAST (args[0]);
     //Environment env = new Environment ();
     //Program program = pl0 . program ();
-    pl0.program();
-    System . out . println ();
-    //env . print ("main program", program);
-    System . out . println ();
-    //Store store = new Store (Location . stackFrameSize (), Location . mainProgSize ());
-    //program . semantics (store);
-    System . out . println ();
-    //System . out . println (store);
+    Module module = module (file, options);
+    Interpreter . run (module, input (options), System . out, options);
+    if (options . listing) {
+      System . out . println ();
+      //env . print ("main program", program);
+      System . out . println ();
+      //Store store = new Store (Location . stackFrameSize (), Location . mainProgSize ());
+      //program . semantics (store);
+      System . out . println ();
+      //System . out . println (store);
+    }
   }
 
 }
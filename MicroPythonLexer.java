@@ -550,9 +550,32 @@ class MicroPythonLexer {
   private boolean zzEOFDone;
 
   /* user code: */
-  private void echo () { System . out . print (yytext ()); }
+  // The source listing: the text of every token, whitespace and comment is
+  // copied to listing as it is matched.  Without a listing the lexer is
+  // silent.
 
-  public int position () { return yycolumn; }
+  private java . io . PrintWriter listing;
+
+  public void setListing (java . io . PrintWriter listing) { this . listing = listing; }
+
+  public java . io . PrintWriter listing () { return listing; }
+
+  private void echo () {
+    if (listing != null)
+      listing . write (zzBuffer, zzStartRead, zzMarkedPos - zzStartRead);
+  }
+
+  // writes out what the listing holds so far, so that an error message
+  // follows the source it refers to
+
+  public void flush () {
+    if (listing != null)
+      listing . flush ();
+  }
+
+  public int position () { flush (); return yycolumn; }
+
+  public int line () { return yyline + 1; }
 
 
   /**
@@ -949,7 +972,7 @@ class MicroPythonLexer {
       else {
         switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {
           case 1:
-            { echo (); ErrorMessage . print ( "Illegal character");
+            { echo (); flush (); throw new LexicalError (yyline + 1, yycolumn, "Illegal character");
             }
             // fall through
           case 42: break;
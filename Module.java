@@ -0,0 +1,45 @@
+// Module.java
+
+// Module is a class to represent a parsed MicroPython program: the
+// definitions of all its functions, each resolved, typed and ready to run,
+// in the order they appear in the source.  Running a Module does not change
+// it, so one Module can be run any number of times; everything a run changes
+// belongs to the Interpreter running it, except the JVM code -jit and
+// -tiered compile for it, which all its runs share.
+
+import java.util.*;
+
+public final class Module {
+
+  private final Store program;                  // the function table
+  private final Store main;
+  private final List<Store> functions;
+  private final JvmCode [] code = new JvmCode [4];
+
+  public Module (Store program, Store main, List<Store> functions) {
+    this . program = program;
+    this . main = main;
+    this . functions = Collections . unmodifiableList (new ArrayList<Store> (functions));
+  }
+
+  public Store main () { return main; }
+
+  // the definition a call of id runs, or null if there is none
+
+  public Store function (String id) { return program . get_f (id); }
+
+  public List<Store> functions () { return functions; }
+
+  public int size () { return functions . size (); }
+
+  // the JVM code of the runs that count steps if counted, and leave the
+  // functions a Memo serves to the tree interpreter if memoizing
+
+  public synchronized JvmCode code (boolean counted, boolean memoizing) {
+    int i = (counted ? 2 : 0) + (memoizing ? 1 : 0);
+    if (code [i] == null)
+      code [i] = new JvmCode (size ());
+    return code [i];
+  }
+
+}
@@ -0,0 +1,104 @@
+// Opcode.java
+
+// Opcode is a class to represent the instruction set of the MicroPython
+// bytecode virtual machine.  Each instruction is an opcode followed by its
+// int operands in the code array of a CompiledFunction.
+
+public class Opcode {
+
+  public static final int PUSH_INT    = 0;   // pool index
+  public static final int LOAD        = 1;   // local slot
+  public static final int STORE       = 2;   // local slot
+  public static final int NEW_LIST    = 3;
+  public static final int INPUT       = 4;
+  public static final int NEG         = 5;
+  public static final int NOT         = 6;
+  public static final int HEAD        = 7;
+  public static final int TAIL        = 8;
+  public static final int NULL        = 9;
+  public static final int ADD         = 10;
+  public static final int SUB         = 11;
+  public static final int MUL         = 12;
+  public static final int DIV         = 13;
+  public static final int EQ          = 14;
+  public static final int NE          = 15;
+  public static final int LT          = 16;
+  public static final int LE          = 17;
+  public static final int GT          = 18;
+  public static final int GE          = 19;
+  public static final int CONS        = 20;
+  public static final int JUMP        = 21;  // target
+  public static final int JUMP_IF_0   = 22;  // target
+  public static final int POP         = 23;
+  public static final int PRINT       = 24;
+  public static final int CALL        = 25;  // function index, argument count
+  public static final int RETURN      = 26;
+  public static final int TAIL_CALL   = 27;  // argument count
+  public static final int JUMP_IF_NOT_0 = 28; // target
+  public static final int LOOP        = 29;  // target: a loop's back edge
+  public static final int CHECK_INT   = 30;  // the value on top is an int
+  public static final int CHECK_LIST  = 31;  // the value on top is a list
+
+  // int instructions on registers, the frame slots of int locals, of
+  // temporaries and of constants, that leave the operand stack alone
+
+  public static final int ADD_R       = 32;  // target, register, register
+  public static final int SUB_R       = 33;  // target, register, register
+  public static final int MUL_R       = 34;  // target, register, register
+  public static final int MOVE_R      = 35;  // target, register
+  public static final int JUMP_LT     = 36;  // register, register, target
+  public static final int JUMP_LE     = 37;  // register, register, target
+  public static final int JUMP_EQ     = 38;  // register, register, target
+  public static final int JUMP_NE     = 39;  // register, register, target
+
+  // fused forms of LOAD STORE and of NULL JUMP_IF_*
+
+  public static final int MOVE        = 40;  // target slot, source slot
+  public static final int JUMP_IF_EMPTY = 41;     // target
+  public static final int JUMP_IF_NOT_EMPTY = 42; // target
+  public static final int DIV_R       = 43;  // target, register, register
+
+  private static final String [] NAMES = {
+    "PUSH_INT", "LOAD", "STORE", "NEW_LIST", "INPUT", "NEG", "NOT", "HEAD",
+    "TAIL", "NULL", "ADD", "SUB", "MUL", "DIV", "EQ", "NE", "LT", "LE", "GT",
+    "GE", "CONS", "JUMP", "JUMP_IF_0", "POP", "PRINT", "CALL", "RETURN",
+    "TAIL_CALL", "JUMP_IF_NOT_0", "LOOP", "CHECK_INT", "CHECK_LIST",
+    "ADD_R", "SUB_R", "MUL_R", "MOVE_R", "JUMP_LT", "JUMP_LE", "JUMP_EQ",
+    "JUMP_NE", "MOVE", "JUMP_IF_EMPTY", "JUMP_IF_NOT_EMPTY",
+    "DIV_R"
+  };
+
+  public static String toString (int opcode) {
+    return (opcode >= 0 && opcode < NAMES.length) ? NAMES[opcode] : null;
+  }
+
+  // number of operands following the opcode in the code array
+
+  public static int operandCount (int opcode) {
+    switch (opcode) {
+      case PUSH_INT  :
+      case LOAD      :
+      case STORE     :
+      case JUMP      :
+      case JUMP_IF_0 :
+      case JUMP_IF_NOT_0 :
+      case JUMP_IF_EMPTY :
+      case JUMP_IF_NOT_EMPTY :
+      case LOOP      :
+      case TAIL_CALL : return 1;
+      case CALL      :
+      case MOVE_R    :
+      case MOVE      : return 2;
+      case ADD_R     :
+      case SUB_R     :
+      case MUL_R     :
+      case DIV_R     :
+      case JUMP_LT   :
+      case JUMP_LE   :
+      case JUMP_EQ   :
+      case JUMP_NE   : return 3;
+      default        : return 0;
+    }
+  }
+
+}
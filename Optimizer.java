@@ -0,0 +1,62 @@
+// Optimizer.java
+
+// Optimizer is a class to simplify the abstract syntax tree of each
+// function once it is resolved and typed, before it runs.  Operators whose
+// operands are all int constants are replaced by their value, computed by
+// the operator's own evalInt so that int overflow and division match what
+// running it would give; a division by the constant 0, or any other
+// constant expression that would fail, is left to fail at run time.
+// Identities whose other operand is an int (x + 0, x - 0, x * 1, x // 1,
+// - - x) are dropped, as are not not e and constant operands of and/or
+// where the result is unchanged, and if and while statements with a
+// constant test keep only the statements that can run.  Each node's fold
+// method does its own part; this class holds the function being folded and
+// counts the nodes removed.
+
+public class Optimizer {
+
+  protected Store fstore;                       // the function being folded
+  protected int removed;
+
+  public void optimize (Store fstore) {
+    this . fstore = fstore;
+    int before = fstore . func_body . nodes ();
+    fstore . func_body = fstore . func_body . fold (this);
+    removed += before - fstore . func_body . nodes ();
+  }
+
+  // nodes removed from all the functions optimized so far
+
+  public int removed () { return removed; }
+
+  // e, whose operands are int constants, as a constant, unless evaluating
+  // it throws
+
+  public Expression constant (Expression e) {
+    try {
+      return new IntValue (e . evalInt (null));
+    }
+    catch (RuntimeException failure) {
+      return e;
+    }
+  }
+
+  // the test of an if or while: only whether it is 0 matters there, so
+  // not not e is e for any int e
+
+  public Expression test (Expression e) {
+    while (e instanceof NotNode && ((NotNode) e) . exp instanceof NotNode
+           && isInt (((NotNode) ((NotNode) e) . exp) . exp))
+      e = ((NotNode) ((NotNode) e) . exp) . exp;
+    return e;
+  }
+
+  public boolean isInt (Expression e) {
+    return e . type (fstore) == Type . INT;
+  }
+
+  public static boolean is (Expression e, int value) {
+    return e instanceof IntValue && ((IntValue) e) . intValue == value;
+  }
+
+}
@@ -0,0 +1,104 @@
+// Options.java
+
+// Options is a class to hold the command line options of the MicroPython
+// interpreter.
+
+public class Options {
+
+  public static final String USAGE =
+    "usage: java MicPyInt [-bytecode] [-jit] [-tiered] [-hot n] [-osr n]\n" +
+    "                     [-depth n] [-silent] [-buffered] [-batch]\n" +
+    "                     [-input file] [-mmap] [-nofold] [-report] [-memo n]\n" +
+    "                     [-inline n] [-inlinelimit n] [-cache n]\n" +
+    "                     [-cachedir dir] [-precompile] [-steps n] [-cells n]\n" +
+    "                     program.py|program.mpa";
+
+  public boolean bytecode = false;      // run on the bytecode VM
+  public boolean jit = false;           // compile int functions to JVM code
+  public boolean tiered = false;        // compile them once they are hot
+  public int hot = 1000;                // calls before a function is hot
+  public int osr = 10000;               // iterations before a loop is hot
+  public int maxCallDepth = 1000;       // deepest allowed function call nesting
+  public boolean listing = true;        // list the source while parsing it
+  public boolean bufferedOutput = false; // batch program output in a buffer
+  public boolean prompt = true;         // print Input>> before each input()
+  public String inputFile = null;       // read input from this file, not stdin
+  public boolean mapInput = false;      // memory-map inputFile
+  public boolean fold = true;           // fold constants before running
+  public boolean report = false;        // report what the optimizations did
+  public boolean runReports = true;     // a run reports its memo and JIT too
+  public int memo = 0;                  // values a Memo holds; 0 for no Memo
+  public int inline = 32;               // largest callee inlined; 0 for none
+  public int inlineLimit = 500;         // largest a caller grows by inlining
+  public int cache = 256;               // programs a ProgramCache holds
+  public String cacheDir = null;        // where it keeps AST files, if anywhere
+  public boolean precompile = false;    // write the program as an AST file
+  public int steps = 0;                 // loop iterations and calls a run may make
+  public int cells = 0;                 // list elements a run may write
+
+  public Options () { }
+
+  // Parses the leading options of args and returns the index of the
+  // program file name.
+
+  public int parse (String [] args) {
+    int arg = parse (args, 0);
+    if (arg >= args . length)
+      ErrorMessage . print (USAGE);
+    return arg;
+  }
+
+  // Parses the options of args from arg on, up to the first argument that
+  // is not one, and returns its index.
+
+  public int parse (String [] args, int arg) {
+    for (; arg < args . length && args [arg] . startsWith ("-"); arg++) {
+      switch (args [arg]) {
+        case "-bytecode" : bytecode = true; break;
+        case "-jit"      : jit = true; break;
+        case "-tiered"   : tiered = true; break;
+        case "-hot"      : hot = intArgument (args, ++arg); break;
+        case "-osr"      : osr = intArgument (args, ++arg); break;
+        case "-depth"    : maxCallDepth = intArgument (args, ++arg); break;
+        case "-silent"   : listing = false; break;
+        case "-buffered" : bufferedOutput = true; break;
+        case "-batch"    : prompt = false; break;
+        case "-input"    : inputFile = stringArgument (args, ++arg); break;
+        case "-mmap"     : mapInput = true; break;
+        case "-nofold"   : fold = false; break;
+        case "-report"   : report = true; break;
+        case "-memo"     : memo = intArgument (args, ++arg); break;
+        case "-inline"   : inline = intArgument (args, ++arg); break;
+        case "-inlinelimit" : inlineLimit = intArgument (args, ++arg); break;
+        case "-cache"    : cache = intArgument (args, ++arg); break;
+        case "-cachedir" : cacheDir = stringArgument (args, ++arg); break;
+        case "-precompile" : precompile = true; break;
+        case "-steps"    : steps = intArgument (args, ++arg); break;
+        case "-cells"    : cells = intArgument (args, ++arg); break;
+        default          : ErrorMessage . print ("Unknown option " + args [arg]);
+      }
+    }
+    if (mapInput && inputFile == null)
+      ErrorMessage . print ("-mmap NEEDS -input file");
+    return arg;
+  }
+
+  private static String stringArgument (String [] args, int arg) {
+    if (arg >= args . length)
+      ErrorMessage . print (args [arg - 1] + " EXPECTS A FILE NAME");
+    return args [arg];
+  }
+
+  private static int intArgument (String [] args, int arg) {
+    if (arg >= args . length)
+      ErrorMessage . print (args [arg - 1] + " EXPECTS A NUMBER");
+    try {
+      return Integer . parseInt (args [arg]);
+    }
+    catch (NumberFormatException e) {
+      ErrorMessage . print (args [arg - 1] + " EXPECTS A NUMBER");
+      return 0;
+    }
+  }
+
+}
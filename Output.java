@@ -0,0 +1,141 @@
+// Output.java
+
+// Output is a class to represent where the values a MicroPython program
+// prints go.  The Interpreter running a program owns one Output and every
+// print, input prompt and the final result of main go through it.
+// Output . of (stream) writes each value straight to a PrintStream, as
+// suits interactive use; BufferedOutput collects the text of many values in
+// one large byte buffer, formatting ints directly into it, and writes the
+// buffer out only when it is full, before a read from input, and at the end
+// of the run.
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public abstract class Output {
+
+  public abstract void print (String s);
+
+  public abstract void println (int value);
+
+  public abstract void println (Object value);
+
+  // writes out anything held back; called before input is read and when
+  // the program ends
+
+  public abstract void flush ();
+
+  public static Output of (PrintStream stream) {
+    return new StreamOutput (stream);
+  }
+
+}
+
+class StreamOutput extends Output {
+
+  protected PrintStream stream;
+
+  public StreamOutput (PrintStream stream) {
+    this . stream = stream;
+  }
+
+  public void print (String s) { stream . print (s); }
+
+  public void println (int value) { stream . println (value); }
+
+  public void println (Object value) { stream . println (value); }
+
+  public void flush () { stream . flush (); }
+
+}
+
+class BufferedOutput extends Output {
+
+  public static final int CAPACITY = 1 << 16;
+
+  protected OutputStream stream;
+  protected byte [] buffer;
+  protected int count;
+
+  public BufferedOutput (OutputStream stream) {
+    this (stream, CAPACITY);
+  }
+
+  public BufferedOutput (OutputStream stream, int capacity) {
+    this . stream = stream;
+    buffer = new byte [Math . max (capacity, 16)];
+  }
+
+  // the text printed is ASCII: digits, signs, brackets, commas and spaces
+
+  public void print (String s) {
+    for (int i = 0; i < s . length (); i++) {
+      if (count == buffer . length)
+        drain ();
+      buffer [count++] = (byte) s . charAt (i);
+    }
+  }
+
+  // the digits of value are written from the right end of the room they
+  // need, so no String is made
+
+  public void println (int value) {
+    if (buffer . length - count < 12)
+      drain ();
+    if (value == Integer . MIN_VALUE) {
+      print ("-2147483648\n");
+      return;
+    }
+    if (value < 0) {
+      buffer [count++] = '-';
+      value = -value;
+    }
+    int end = count + digits (value);
+    for (int i = end - 1; i >= count; i--) {
+      buffer [i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    count = end;
+    buffer [count++] = '\n';
+  }
+
+  public void println (Object value) {
+    if (value instanceof Integer)
+      println ((int) (Integer) value);
+    else {
+      print (String . valueOf (value));
+      print ("\n");
+    }
+  }
+
+  public void flush () {
+    drain ();
+    try {
+      stream . flush ();
+    }
+    catch (IOException e) {
+      throw new RuntimeError ("output: " + e . getMessage (), e);
+    }
+  }
+
+  private void drain () {
+    try {
+      stream . write (buffer, 0, count);
+    }
+    catch (IOException e) {
+      throw new RuntimeError ("output: " + e . getMessage (), e);
+    }
+    count = 0;
+  }
+
+  private static int digits (int value) {
+    int n = 1;
+    while (value >= 10) {
+      value /= 10;
+      n++;
+    }
+    return n;
+  }
+
+}
@@ -0,0 +1,14 @@
+// ParseError.java
+
+// ParseError is thrown by the parser at a token the grammar does not allow
+// where it stands; the position is that of the token.
+
+public class ParseError extends SourceError {
+
+  private static final long serialVersionUID = 1L;
+
+  public ParseError (int line, int column, String error) {
+    super (line, column, error);
+  }
+
+}
@@ -12,130 +12,251 @@ public class ParserAST {
 
     protected MicroPythonLexer lexer; 	// lexical analyzer
     protected Token token;          	// current token
+    protected Options options;          // interpreter options
+    protected Optimizer optimizer;      // null unless folding is on
 
     public ParserAST (String inp) throws IOException {
-        FileInputStream inputStream = new FileInputStream (inp);
-        lexer = new MicroPythonLexer (new InputStreamReader (inputStream));
+        this (inp, new Options ());
+    }
+
+    public ParserAST (String inp, Options options) throws IOException {
+        this (new InputStreamReader (new FileInputStream (inp)), options);
+    }
+
+    // a parser of the source read from reader, such as a program sent to
+    // a Server
+
+    public ParserAST (Reader reader, Options options) throws IOException {
+        lexer = new MicroPythonLexer (reader);
+        this . options = options;
+        if (options . listing)
+            lexer . setListing (new PrintWriter (new BufferedWriter (
+                new OutputStreamWriter (System . out), 1 << 16)));
         getToken ();
     }
 
+    // a parser of no source, to resolve functions read some other way, as
+    // from an AST file
+
+    public ParserAST (Options options) {
+        this . options = options;
+    }
+
     private void getToken () throws IOException {
         token = lexer . nextToken ();
     }
 
+    // a syntax error at the token just read, to be thrown
+
+    private ParseError error (String message) {
+        return new ParseError (lexer . line (), lexer . position (), message);
+    }
+
     // program ::= from MicroPythonListClass import MicroPythonList { funcdef }
 
-    public void program () throws java.io.IOException {
-      Store store = new Store ();
+    // Every function is parsed before any is resolved, so calls may refer
+    // to functions defined further down; nothing runs until the returned
+    // Module is handed to an Interpreter.
+
+    public Module program () throws java.io.IOException {
+        Store store = new Store ();
+        return module (store, functions (store));
+    }
+
+    // the functions of the program, as parsed, with their definitions in
+    // the function table store
+
+    public List<Store> functions (Store store) throws java.io.IOException {
+      ArrayList<Store> functions = new ArrayList<Store> ();
         if (token . symbol () != Symbol . FROM) 		// from
-            ErrorMessage . print (lexer . position (), "from EXPECTED");
+            throw error ("from EXPECTED");
         getToken ();
         if (token . symbol () != Symbol . MICRO_PYTHON_LIST_CLASS) // MicroPythonListClass
-            ErrorMessage . print (lexer . position (), "MicroPythonListClass EXPECTED");
+            throw error ("MicroPythonListClass EXPECTED");
         getToken ();
         if (token . symbol () != Symbol . IMPORT) 		// import
-            ErrorMessage . print (lexer . position (), "import EXPECTED");
+            throw error ("import EXPECTED");
         getToken ();
         if (token . symbol () != Symbol . MICRO_PYTHON_LIST) // MicroPythonList
-            ErrorMessage . print (lexer . position (), "list EXPECTED");
+            throw error ("list EXPECTED");
         getToken ();
-        while (token . symbol () != Symbol . EOF)  		// { funcdef }
-            funcDef (store);
+        while (token . symbol () != Symbol . EOF)		// { funcdef }
+            functions . add (funcDef (store));
+        lexer . flush ();
+        return functions;
+    }
+
+    // The Module of the parsed functions, which it resolves in place.
+    // Callees are resolved before their callers so that small ones can be
+    // inlined into them.
+
+    public Module module (Store store, List<Store> functions) {
+        Store main = null;
+        for (int i = 0; i < functions . size (); i++) {
+            Store fstore = functions . get (i);
+            fstore . index = i;
+            if (Objects . equals (fstore . id, "main"))
+                main = fstore;
+        }
+        if (options . fold)
+            optimizer = new Optimizer ();
+        Inliner inliner = null;
+        List<Store> order = functions;
+        if (options . inline > 0) {
+            inliner = new Inliner (new CallGraph (functions),
+                                   options . inline, options . inlineLimit);
+            order = inliner . order (functions);
+        }
+        for (Store fstore : order) {
+            if (inliner != null)
+                inliner . inline (fstore);
+            resolve (fstore);
+        }
+        purity (functions);
+        if (optimizer != null && options . report)
+            System . err . println ("fold: " + optimizer . removed () + " nodes removed");
+        if (inliner != null && options . report)
+            System . err . print (inliner . report ());
+        return new Module (store, main, functions);
     }
 
     // funcdef ::= def function-identifier ( [ formal-parameter { , formal-parameter } ] ) -> type :
     //   suite return add-expr
 
-    public void funcDef (Store store) throws java.io.IOException {
+    public Store funcDef (Store store) throws java.io.IOException {
         Statement functionBody, returnStatement;
         Vector<String> args = new Vector<String>();
+        Vector<Type> argTypes = new Vector<Type>();
         if (token . symbol () != Symbol . DEF)    		// def
-            ErrorMessage . print (lexer . position (), "def EXPECTED");
+            throw error ("def EXPECTED");
         getToken ();
         if (token . symbol () != Symbol . ID)    		// function-identifier
-            ErrorMessage . print (lexer . position (), "function identifier EXPECTED");
+            throw error ("function identifier EXPECTED");
         String functionId = token . lexeme ();
-        System.out.println("Func name = "+functionId);
+        if (lexer . listing () != null)
+            lexer . listing () . println ("Func name = "+functionId);
         getToken ();
         if (token . symbol () != Symbol . LPAREN)    	// (
-            ErrorMessage . print (lexer . position (), "( EXPECTED");
+            throw error ("( EXPECTED");
         getToken ();
         if (token . symbol () == Symbol . ID) {		// [ formal-parameter
-            formalParameter (args);
+            formalParameter (args, argTypes);
             while (token . symbol () == Symbol . COMMA) {	// { ,
                 getToken ();
                 if (token . symbol () != Symbol . ID)    	// formal-parameter
-                    ErrorMessage . print (lexer . position (), "identifier EXPECTED");
-                formalParameter (args);
+                    throw error ("identifier EXPECTED");
+                formalParameter (args, argTypes);
             } 						// }
         } 							// ]
         if (token . symbol () != Symbol . RPAREN)    	// )
-            ErrorMessage . print (lexer . position (), ") EXPECTED");
+            throw error (") EXPECTED");
         getToken ();
         if (token . symbol () != Symbol . RETURNS)    	// )
-            ErrorMessage . print (lexer . position (), "-> EXPECTED");
+            throw error ("-> EXPECTED");
         getToken ();
-        type ();
+        Type returnType = type ();
         if (token . symbol () != Symbol . COLON)   		// :
-            ErrorMessage . print (lexer . position (), ": EXPECTED");
+            throw error (": EXPECTED");
         getToken ();
         functionBody = suite (); 				// suite
         if (token . symbol () != Symbol . RETURN)  		// return
-            ErrorMessage . print (lexer . position (), "return EXPECTED");
+            throw error ("return EXPECTED");
         getToken ();
         Expression returnExp = addExpr ();			// add-expr
         functionBody =
                 new Statement (functionBody, new ReturnStatement (returnExp));
-        if(Objects.equals(functionId, "main")){
-            functionBody.semantics(store);
-            System.out.println(returnExp.semantics(store));
-        }
-        else{
-            Store fstore = new Store();
-            fstore.func_body = functionBody;
-            fstore.arg_list = args;
-            fstore.id = functionId;
+        return define (store, functionId, args, argTypes, returnType, functionBody);
+    }
+
+    // the definition of a function, entered in the function table store
+    // unless it is main
+
+    public static Store define (Store store, String functionId, Vector<String> args,
+                                Vector<Type> argTypes, Type returnType,
+                                Statement functionBody) {
+        Store fstore = new Store(store);
+        fstore.func_body = functionBody;
+        fstore.arg_list = args;
+        fstore.id = functionId;
+        fstore.returnType = returnType;
+        for (int i = 0; i < argTypes . size (); i++)
+            fstore . declare (args . get (i), argTypes . get (i));
+        if(!Objects.equals(functionId, "main"))
             store.update_f(functionId,fstore);
+        return fstore;
+    }
+
+    // resolution: number every local of the function after its formal
+    // parameters in order of first appearance, infer the type of each local
+    // from the values assigned to it, record slots and types in the
+    // Identifier nodes, fold constants, and mark the calls in tail position
+
+    public void resolve (Store fstore) {
+        fstore . func_body . resolve (fstore);
+        while (fstore . func_body . infer (fstore))
+            ;
+        fstore . settleTypes ();
+        fstore . func_body . resolve (fstore);
+        if (optimizer != null)
+            optimizer . optimize (fstore);
+        fstore . func_body = fstore . func_body . tailCalls (fstore, null);
+    }
+
+    // marks the pure functions, and those of them whose parameters are all
+    // ints, which a Memo can serve
+
+    public void purity (List<Store> functions) {
+        Set<String> pure = new CallGraph (functions) . pure ();
+        for (Store fstore : functions) {
+            fstore . pure = pure . contains (fstore . id);
+            fstore . memoizable = fstore . pure;
+            for (int i = 0; i < fstore . arg_list . size (); i++)
+                if (fstore . type (i) != Type . INT)
+                    fstore . memoizable = false;
         }
+        if (options . report)
+            System . err . println ("pure: " + pure);
     }
 
     // formal-parameter ::= variable-identifier : type
 
-    public void formalParameter (Vector<String> args) throws java.io.IOException {
+    public void formalParameter (Vector<String> args, Vector<Type> argTypes) throws java.io.IOException {
         if (token . symbol () != Symbol . ID)          	// variable-id
-            ErrorMessage . print (lexer . position (), "variable identifier EXPECTED");
+            throw error ("variable identifier EXPECTED");
         args.add(token.lexeme());
         getToken ();
         if (token . symbol () != Symbol . COLON)            // :
-            ErrorMessage . print (lexer . position (), ": EXPECTED");
+            throw error (": EXPECTED");
         getToken ();
-        type ();
+        argTypes . add (type ());
     }
 
     // type ::= int | MicroPythonList
 
-    public void type () throws java.io.IOException {
-        if (token . symbol () == Symbol . INT)		// int
+    public Type type () throws java.io.IOException {
+        if (token . symbol () == Symbol . INT) {		// int
             getToken ();
-        else if (token . symbol () == Symbol . MICRO_PYTHON_LIST) // MicroPythonList
+            return Type . INT;
+        }
+        else if (token . symbol () == Symbol . MICRO_PYTHON_LIST) { // MicroPythonList
             getToken ();
-        else
-            ErrorMessage . print (lexer . position (), "type EXPECTED");
+            return Type . MICRO_PYTHON_LIST;
+        }
+        throw error ("type EXPECTED");
     }
 
     // suite ::= statement { statement }
 
     public Statement suite () throws java.io.IOException {
-        Statement stmt, stmt1;
-        stmt = statement ();			// statement
+        ArrayList<Statement> stmts = new ArrayList<Statement> ();
+        stmts . add (statement ());			// statement
         while (token . symbol () == Symbol . ID
                 || token . symbol () == Symbol . IF
                 || token . symbol () == Symbol . WHILE
                 || token . symbol () == Symbol . PRINT) { // {
-            stmt1 = statement ();			// statement
-            stmt = new Statement (stmt, stmt1);
+            stmts . add (statement ());		// statement
         } 						// }
-        return stmt;
+        return new Statement (stmts);
     }
 
     // statement ::= variable-identifier = add-expr
@@ -153,7 +274,7 @@ public class ParserAST {
                 Identifier id = new Identifier (token . lexeme ());
                 getToken ();
                 if (token . symbol () != Symbol . ASSIGN)	// =
-                    ErrorMessage . print (lexer . position (), "= EXPECTED");
+                    throw error ("= EXPECTED");
                 getToken ();
                 exp = addExpr ();				// add-expr
                 stmt = new Assignment (id, exp);
@@ -163,20 +284,20 @@ public class ParserAST {
                 getToken ();
                 exp = orTest ();				// or-test
                 if (token . symbol () != Symbol . COLON)	// :
-                    ErrorMessage . print (lexer . position (), ": EXPECTED");
+                    throw error (": EXPECTED");
                 getToken ();
                 stmt1 = suite ();				// suite
                 if (token . symbol () != Symbol . SEMICOLON)	// ;
-                    ErrorMessage . print (lexer . position (), "; EXPECTED");
+                    throw error ("; EXPECTED");
                 getToken ();
                 if (token . symbol () == Symbol . ELSE) {	// [ else
                     getToken ();
                     if (token . symbol () != Symbol . COLON)	// :
-                        ErrorMessage . print (lexer . position (), ": EXPECTED");
+                        throw error (": EXPECTED");
                     getToken ();
                     stmt2 = suite ();	           		// suite
                     if (token . symbol () != Symbol . SEMICOLON)	// ;
-                        ErrorMessage . print (lexer . position (), "; EXPECTED");
+                        throw error ("; EXPECTED");
                     getToken ();
                 } 						// ]
                 else
@@ -188,11 +309,11 @@ public class ParserAST {
                 getToken ();
                 exp = orTest ();	 			// or-test
                 if (token . symbol () != Symbol . COLON)	// :
-                    ErrorMessage . print (lexer . position (), ": EXPECTED");
+                    throw error (": EXPECTED");
                 getToken ();
                 stmt1 = suite ();				// suite
                 if (token . symbol () != Symbol . SEMICOLON)	// ;
-                    ErrorMessage . print (lexer . position (), "; EXPECTED");
+                    throw error ("; EXPECTED");
                 getToken ();
                 stmt = new WhileStatement (exp, stmt1);
                 break;
@@ -200,17 +321,17 @@ public class ParserAST {
             case PRINT : 					// print
                 getToken ();
                 if (token . symbol () != Symbol . LPAREN)       // (
-                    ErrorMessage . print (lexer . position (), "( EXPECTED");
+                    throw error ("( EXPECTED");
                 getToken ();
                 exp = addExpr ();	 			// add-expr
                 if (token . symbol () != Symbol . RPAREN)       // )
-                    ErrorMessage . print (lexer . position (), ") EXPECTED");
+                    throw error (") EXPECTED");
                 stmt = new PrintStatement (exp);
                 getToken ();
                 break;
 
             default :						// error
-                ErrorMessage . print (lexer . position (), "STATEMENT EXPECTED");
+                throw error ("STATEMENT EXPECTED");
 
         }
         return stmt;
@@ -224,7 +345,7 @@ public class ParserAST {
         while (token . symbol () == Symbol . OR) {   	// { or
             getToken ();
             exp1 = andTest ();				// and-test
-            exp = new Binary ("or", exp, exp1);
+            exp = Binary . create ("or", exp, exp1);
         } 							// }
         return exp;
     }
@@ -237,7 +358,7 @@ public class ParserAST {
         while (token . symbol () == Symbol . AND) {   	// { and
             getToken ();
             exp1 = notTest ();	 			// not-test
-            exp = new Binary ("and", exp, exp1);
+            exp = Binary . create ("and", exp, exp1);
         } 							// }
         return exp;
     }
@@ -249,7 +370,7 @@ public class ParserAST {
         if (token . symbol () == Symbol . NOT) {   		// not
             getToken ();
             exp = notTest ();		 			// not-test
-            exp = new Unary ("not", exp);
+            exp = Unary . create ("not", exp);
         }
         else
             exp = comparison ();				// comparison
@@ -268,7 +389,7 @@ public class ParserAST {
             exp2 = addExpr ();				// add-expr ]
         }
         if (exp2 != null)
-            exp1 = new Binary (op, exp1, exp2);
+            exp1 = Binary . create (op, exp1, exp2);
         return exp1;
     }
 
@@ -281,7 +402,7 @@ public class ParserAST {
             String op = token . lexeme ();
             getToken ();
             exp1 = multExpr ();				// mult-expr
-            exp = new Binary (op, exp, exp1);
+            exp = Binary . create (op, exp, exp1);
         } 							// }
         return exp;
     }
@@ -295,7 +416,7 @@ public class ParserAST {
             String op = token . lexeme ();
             getToken ();
             exp1 = unaryExpr ();				// unary-expr
-            exp = new Binary (op, exp, exp1);
+            exp = Binary . create (op, exp, exp1);
         } 							// }
         return exp;
     }
@@ -311,7 +432,7 @@ public class ParserAST {
         }
         exp = primary ();	 				// primary
         if (unaryOp != null)
-            exp = new Unary (unaryOp, exp);
+            exp = Unary . create (unaryOp, exp);
         return exp;
     }
 
@@ -327,19 +448,19 @@ public class ParserAST {
         else if (token . symbol () == Symbol . INT) {       // int
             getToken ();
             if (token . symbol () != Symbol . LPAREN)       	// (
-                ErrorMessage . print (lexer . position (), "( EXPECTED");
+                throw error ("( EXPECTED");
             getToken ();
             if (token . symbol () != Symbol . INPUT)       // input
-                ErrorMessage . print (lexer . position (), "input EXPECTED");
+                throw error ("input EXPECTED");
             getToken ();
             if (token . symbol () != Symbol . LPAREN)       // )
-                ErrorMessage . print (lexer . position (), "( EXPECTED");
+                throw error ("( EXPECTED");
             getToken ();
             if (token . symbol () != Symbol . RPAREN)       // )
-                ErrorMessage . print (lexer . position (), ") EXPECTED");
+                throw error (") EXPECTED");
             getToken ();
             if (token . symbol () != Symbol . RPAREN)       // )
-                ErrorMessage . print (lexer . position (), ") EXPECTED");
+                throw error (") EXPECTED");
             exp = new Input ();
             getToken ();
         }
@@ -363,50 +484,50 @@ public class ParserAST {
                 case CONS : 					// cons
                     getToken ();
                     if (token . symbol () != Symbol . LPAREN)  	// (
-                        ErrorMessage . print (lexer . position (), "( EXPECTED");
+                        throw error ("( EXPECTED");
                     getToken ();
                     exp2 = addExpr ();	 			// add-expr
                     if (token . symbol () != Symbol . RPAREN)  	// )
-                        ErrorMessage . print (lexer . position (), ") EXPECTED");
-                    exp1 = new Binary ("cons", exp1, exp2);
+                        throw error (") EXPECTED");
+                    exp1 = Binary . create ("cons", exp1, exp2);
                     getToken ();
                     break;
 
                 case HEAD : 	 				// head
                     getToken ();
                     if (token . symbol () != Symbol . LPAREN)  	// (
-                        ErrorMessage . print (lexer . position (), "( EXPECTED");
+                        throw error ("( EXPECTED");
                     getToken ();
                     if (token . symbol () != Symbol . RPAREN)  	// )
-                        ErrorMessage . print (lexer . position (), ") EXPECTED");
-                    exp1 = new Unary ("head", exp1);
+                        throw error (") EXPECTED");
+                    exp1 = Unary . create ("head", exp1);
                     getToken ();
                     break;
 
                 case TAIL :	 				// tail
                     getToken ();
                     if (token . symbol () != Symbol . LPAREN)  	// (
-                        ErrorMessage . print (lexer . position (), "( EXPECTED");
+                        throw error ("( EXPECTED");
                     getToken ();
                     if (token . symbol () != Symbol . RPAREN)  	// )
-                        ErrorMessage . print (lexer . position (), ") EXPECTED");
-                    exp1 = new Unary ("tail", exp1);
+                        throw error (") EXPECTED");
+                    exp1 = Unary . create ("tail", exp1);
                     getToken ();
                     break;
 
                 case NULL :                                     // null
                     getToken ();
                     if (token . symbol () != Symbol . LPAREN)     // (
-                        ErrorMessage . print (lexer . position (), "( EXPECTED");
+                        throw error ("( EXPECTED");
                     getToken ();
                     if (token . symbol () != Symbol . RPAREN)     // )
-                        ErrorMessage . print (lexer . position (), ") EXPECTED");
-                    exp1 = new Unary ("null", exp1);
+                        throw error (") EXPECTED");
+                    exp1 = Unary . create ("null", exp1);
                     getToken ();
                     break;
 
                 default:
-                    ErrorMessage . print (lexer . position (), "LIST FUNCTION EXPECTED");
+                    throw error ("LIST FUNCTION EXPECTED");
 
             }
         }
@@ -429,7 +550,7 @@ public class ParserAST {
                 if (token . symbol () != Symbol . RPAREN)
                     expList = addExprList ();			// add-expr-list
                 if (token . symbol () != Symbol . RPAREN)     	// ) ]
-                    ErrorMessage . print (lexer . position (), ") EXPECTED");
+                    throw error (") EXPECTED");
                 exp = new FunctionCall (id, expList);
                 getToken ();
             }
@@ -438,21 +559,21 @@ public class ParserAST {
             getToken ();
             exp = addExpr ();					// add-expr
             if (token . symbol () != Symbol . RPAREN)	// )
-                ErrorMessage . print (lexer . position (), ") EXPECTED");
+                throw error (") EXPECTED");
             getToken ();
         }
         else if (token . symbol () == Symbol . MICRO_PYTHON_LIST) { // MicroPythonList
             getToken ();
             if (token . symbol () != Symbol . LPAREN)         // (
-                ErrorMessage . print (lexer . position (), "( EXPECTED");
+                throw error ("( EXPECTED");
             getToken ();
             if (token . symbol () != Symbol . RPAREN)       // ) ]
-                ErrorMessage . print (lexer . position (), ") EXPECTED");
+                throw error (") EXPECTED");
             exp = new MicroPythonList ();
             getToken ();
         }
         else
-            ErrorMessage . print (lexer . position (), "ATOM EXPECTED");
+            throw error ("ATOM EXPECTED");
         return exp;
     }
 
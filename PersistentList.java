@@ -0,0 +1,166 @@
+// PersistentList.java
+
+// PersistentList is a class to represent MicroPython list values.  A list
+// is an immutable view [start, end) of a shared, growable element buffer:
+// tail moves start forward, and cons appends after end.  When the list is
+// the newest view of its buffer, cons appends in place; otherwise another
+// list has already been consed from the same view, so the elements are
+// copied to a fresh buffer first.  head, tail and null therefore take
+// constant time, and so does cons onto the newest view (amortized over the
+// buffer's doubling), which is how a list built in a loop is extended; a
+// cons onto any older view branches and takes time linear in the list's
+// length, to copy it.  Lists built from one another without branching
+// share their elements.
+
+// A buffer holding only ints keeps them unboxed in an int array, and
+// switches to an Object array the first time a list is consed into it.
+
+import java.util.NoSuchElementException;
+
+public final class PersistentList {
+
+  private static final class Buffer {
+    int [] ints;                // elements while they are all ints, or
+    Object [] objects;          // elements once any of them is a list
+    int size;                   // elements in use by the newest view
+
+    Buffer (int capacity) {
+      ints = new int [capacity];
+    }
+
+    int capacity () {
+      return (ints != null) ? ints . length : objects . length;
+    }
+
+    void grow (int capacity) {
+      if (ints != null) {
+        int [] grown = new int [capacity];
+        System . arraycopy (ints, 0, grown, 0, size);
+        ints = grown;
+      }
+      else {
+        Object [] grown = new Object [capacity];
+        System . arraycopy (objects, 0, grown, 0, size);
+        objects = grown;
+      }
+    }
+
+    void box () {
+      objects = new Object [ints . length];
+      for (int i = 0; i < size; i++)
+        objects [i] = ints [i];
+      ints = null;
+    }
+  }
+
+  private final Buffer buffer;
+  private final int start, end;
+
+  public PersistentList () {
+    this (new Buffer (4), 0, 0);
+  }
+
+  private PersistentList (Buffer buffer, int start, int end) {
+    this . buffer = buffer;
+    this . start = start;
+    this . end = end;
+  }
+
+  public boolean isEmpty () { return start == end; }
+
+  public int size () { return end - start; }
+
+  public Object get (int i) {
+    Buffer b = buffer;
+    return (b . ints != null) ? (Object) b . ints [start + i] : b . objects [start + i];
+  }
+
+  public Object head () {
+    if (start == end)
+      throw new NoSuchElementException ("head of empty list");
+    return get (0);
+  }
+
+  public boolean headIsInt () {
+    return buffer . ints != null || head () instanceof Integer;
+  }
+
+  public int headInt () {
+    if (start == end)
+      throw new NoSuchElementException ("head of empty list");
+    Buffer b = buffer;
+    return (b . ints != null) ? b . ints [start] : (Integer) b . objects [start];
+  }
+
+  public PersistentList tail () {
+    if (start == end)
+      throw new NoSuchElementException ("tail of empty list");
+    return new PersistentList (buffer, start + 1, end);
+  }
+
+  public PersistentList cons (Object element) {
+    if (element instanceof Integer)
+      return consInt ((Integer) element);
+    Buffer b = appendable ();
+    if (b . ints != null)
+      b . box ();
+    b . objects [b . size] = element;
+    return appended (b);
+  }
+
+  public PersistentList consInt (int element) {
+    Buffer b = appendable ();
+    if (b . ints != null)
+      b . ints [b . size] = element;
+    else
+      b . objects [b . size] = element;
+    return appended (b);
+  }
+
+  // the elements a cons onto this list writes: one if it appends in
+  // place, all of them if it copies them to a buffer of its own
+
+  public int consCells () {
+    return (end == buffer . size) ? 1 : end - start + 1;
+  }
+
+  // the buffer to append to, with room for one more element: this list's
+  // own buffer if it is the newest view of it, otherwise a copy of its
+  // elements, made in time linear in their number
+
+  private Buffer appendable () {
+    Buffer b = buffer;
+    int n = end - start;
+    if (end != b . size) {
+      Buffer copy = new Buffer (0);
+      if (b . ints != null)
+        copy . ints = java . util . Arrays . copyOfRange (b . ints, start, start + Math . max (4, 2 * n));
+      else {
+        copy . ints = null;
+        copy . objects = java . util . Arrays . copyOfRange (b . objects, start, start + Math . max (4, 2 * n));
+      }
+      copy . size = n;
+      b = copy;
+    }
+    if (b . size == b . capacity ())
+      b . grow (2 * b . size);
+    return b;
+  }
+
+  private PersistentList appended (Buffer b) {
+    int s = (b == buffer) ? start : 0;
+    b . size++;
+    return new PersistentList (b, s, b . size);
+  }
+
+  public String toString () {
+    StringBuilder sb = new StringBuilder ("[");
+    for (int i = 0; i < end - start; i++) {
+      if (i > 0)
+        sb . append (", ");
+      sb . append (get (i));
+    }
+    return sb . append ("]") . toString ();
+  }
+
+}
@@ -0,0 +1,141 @@
+// ProgramCache.java
+
+// ProgramCache is a class to keep the Modules of programs that are run
+// again and again, such as those sent to a Server, so that each is lexed,
+// parsed and resolved once.  Programs are keyed by a SHA-256 hash of their
+// source, and of the interpreter and AST format versions; the cache holds
+// at most capacity Modules and forgets the least recently used first.  A
+// Module can be shared because running it does not change it.
+//
+// With a cache directory, a program that is parsed is also written there
+// in the AST format, as the file named by its key, and a program not in
+// memory is read from there, mapped into memory, before it is parsed;
+// only the passes after parsing are run again.  A changed source, or a new
+// version of the interpreter or the format, has another key, so a stale
+// file is never read; one that cannot be read is parsed over.  The listing
+// of a program is printed only when it is parsed.
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+public class ProgramCache {
+
+  protected Options options;
+  protected Path directory;                     // null unless on disk too
+  protected LinkedHashMap<String,Module> modules;
+  protected long hits, loads, parses;
+
+  public ProgramCache (Options options) {
+    this . options = options;
+    if (options . cacheDir != null)
+      directory = Paths . get (options . cacheDir);
+    final int capacity = options . cache;
+    modules = new LinkedHashMap<String,Module> (16, 0.75f, true) {
+      protected boolean removeEldestEntry (Map.Entry<String,Module> eldest) {
+        return size () > capacity;
+      }
+    };
+  }
+
+  public Module module (String file) throws IOException {
+    return module (Files . readAllBytes (Paths . get (file)));
+  }
+
+  // the Module of source, from memory, the cache directory or the parser;
+  // an error in source is thrown as the lexer or parser throws it
+
+  public Module module (byte [] source) throws IOException {
+    String key = key (source);
+    synchronized (this) {
+      Module module = modules . get (key);
+      if (module != null) {
+        hits++;
+        return module;
+      }
+    }
+    Module module = null;
+    if (directory != null)
+      module = load (directory . resolve (key + AstWriter . EXTENSION));
+    if (module == null)
+      module = parse (source, key);
+    synchronized (this) {
+      modules . put (key, module);
+    }
+    return module;
+  }
+
+  // the Module in the AST file, or null if there is none or it cannot be
+  // read
+
+  private Module load (Path file) {
+    if (!Files . isRegularFile (file))
+      return null;
+    Store store = new Store ();
+    List<Store> functions;
+    try {
+      functions = AstReader . mapped (file) . functions (store);
+    }
+    catch (IOException e) {
+      if (options . report)
+        System . err . println ("cache: " + file + ": " + e . getMessage ());
+      return null;
+    }
+    synchronized (this) {
+      loads++;
+    }
+    return new ParserAST (options) . module (store, functions);
+  }
+
+  private Module parse (byte [] source, String key) throws IOException {
+    ParserAST parser = new ParserAST (new InputStreamReader (
+      new ByteArrayInputStream (source), StandardCharsets . UTF_8), options);
+    Store store = new Store ();
+    List<Store> functions = parser . functions (store);
+    if (directory != null)
+      save (directory . resolve (key + AstWriter . EXTENSION), AstWriter . write (functions));
+    synchronized (this) {
+      parses++;
+    }
+    return parser . module (store, functions);
+  }
+
+  // writes the file whole or not at all, so that a run reading it at the
+  // same time never sees part of it
+
+  private void save (Path file, byte [] bytes) throws IOException {
+    Files . createDirectories (file . getParent ());
+    Path temporary = Files . createTempFile (file . getParent (), "mpa", ".tmp");
+    try {
+      Files . write (temporary, bytes);
+      Files . move (temporary, file, StandardCopyOption . REPLACE_EXISTING,
+                    StandardCopyOption . ATOMIC_MOVE);
+    }
+    finally {
+      Files . deleteIfExists (temporary);
+    }
+  }
+
+  public static String key (byte [] source) {
+    MessageDigest sha;
+    try {
+      sha = MessageDigest . getInstance ("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException (e);
+    }
+    sha . update ((MicPyInt . VERSION + "/" + AstWriter . VERSION + "\n")
+                  . getBytes (StandardCharsets . UTF_8));
+    StringBuilder sb = new StringBuilder ();
+    for (byte b : sha . digest (source))
+      sb . append (String . format ("%02x", b));
+    return sb . toString ();
+  }
+
+  public synchronized String report () {
+    return "cache: " + hits + " hits, " + loads + " loaded, " + parses + " parsed\n";
+  }
+
+}
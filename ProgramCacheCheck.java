@@ -0,0 +1,146 @@
+// ProgramCacheCheck.java
+
+// This program checks that a damaged entry in a ProgramCache directory is
+// parsed over rather than trusted.  It has a cache write the AST file of a
+// small program, then puts every proper prefix of that file in its place
+// and checks that a fresh cache reparses the source and the program prints
+// what it does when parsed.  It also writes each of a few byte strings,
+// such as a varint too long or one counting far more items than there are
+// bytes, over the file at each position in turn and checks that AstReader
+// either reads the result or throws an IOException, and nothing else, as
+// it must for a file of a million nested unary operators.  It throws on
+// the first entry that fails and prints a summary otherwise.
+
+// usage: java ProgramCacheCheck
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+public class ProgramCacheCheck {
+
+  private static final String SOURCE =
+    "from MicroPythonListClass import MicroPythonList\n" +
+    "\n" +
+    "def total (l : MicroPythonList) -> int :\n" +
+    "  s = 0\n" +
+    "  while not l . null () :\n" +
+    "    s = s + l . head ()\n" +
+    "    l = l . tail ();\n" +
+    "  return s\n" +
+    "\n" +
+    "def main () -> int :\n" +
+    "  l = MicroPythonList ()\n" +
+    "  i = 1\n" +
+    "  while i <= 10 :\n" +
+    "    l = l . cons (i * i)\n" +
+    "    i = i + 1;\n" +
+    "  if total (l) > 300 :\n" +
+    "    print (total (l));\n" +
+    "  return 0\n";
+
+  private static final byte [][] REPLACEMENTS = {
+    { 0x00 }, { 0x01 }, { 0x7f }, { (byte) 0x80 }, { (byte) 0xff },
+    { (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 },                  // 2^28 - 1
+    { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f },     // -1
+    { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff }
+  };
+
+  public static void main (String args []) throws IOException {
+    Path directory = Files . createTempDirectory ("cache");
+    try {
+      check (directory);
+    }
+    finally {
+      try (DirectoryStream<Path> files = Files . newDirectoryStream (directory)) {
+        for (Path file : files)
+          Files . delete (file);
+      }
+      Files . delete (directory);
+    }
+  }
+
+  private static void check (Path directory) throws IOException {
+    Options options = new Options ();
+    options . listing = false;
+    options . cacheDir = directory . toString ();
+    byte [] source = SOURCE . getBytes (StandardCharsets . UTF_8);
+    String expected = run (new ProgramCache (options) . module (source), options);
+    Path entry;
+    try (DirectoryStream<Path> files = Files . newDirectoryStream (directory)) {
+      entry = files . iterator () . next ();
+    }
+    byte [] bytes = Files . readAllBytes (entry);
+
+    for (int n = 0; n < bytes . length; n++) {
+      Files . write (entry, java . util . Arrays . copyOf (bytes, n));
+      ProgramCache cache = new ProgramCache (options);
+      String output = run (cache . module (source), options);
+      if (!output . equals (expected))
+        throw new IllegalStateException ("entry cut to " + n + " bytes: printed "
+                                         + output + " instead of " + expected);
+      if (!cache . report () . contains (" 0 loaded, 1 parsed"))
+        throw new IllegalStateException ("entry cut to " + n + " bytes: "
+                                         + cache . report () . trim ());
+    }
+
+    int read = 0, rejected = 0;
+    for (int i = 0; i < bytes . length; i++)
+      for (byte [] replacement : REPLACEMENTS) {
+        byte [] corrupt = bytes . clone ();
+        System . arraycopy (replacement, 0, corrupt, i,
+                            Math . min (replacement . length, bytes . length - i));
+        if (java . util . Arrays . equals (corrupt, bytes))
+          continue;
+        try {
+          new AstReader (ByteBuffer . wrap (corrupt)) . functions (new Store ());
+          read++;
+        }
+        catch (IOException e) {
+          rejected++;
+        }
+        catch (RuntimeException e) {
+          throw new IllegalStateException ("bytes from " + i + " set to "
+                                           + java . util . Arrays . toString (replacement)
+                                           + ": " + e, e);
+        }
+      }
+
+    try {
+      new AstReader (ByteBuffer . wrap (nested (1 << 20))) . functions (new Store ());
+      read++;
+    }
+    catch (IOException e) {
+      rejected++;
+    }
+
+    System . out . printf ("%d truncated entries parsed over, %d corrupt entries: "
+                           + "%d rejected, %d read%n",
+                           bytes . length, read + rejected, rejected, read);
+  }
+
+  // an AST file of main returning n unary operators applied to 0
+
+  private static byte [] nested (int n) {
+    ByteBuffer b = ByteBuffer . allocate (2 * n + 32);
+    b . putInt (AstWriter . MAGIC) . putShort ((short) AstWriter . VERSION);
+    b . put ((byte) 1) . put ((byte) 4) . put ("main" . getBytes (StandardCharsets . UTF_8));
+    b . put ((byte) 1) . put ((byte) 0) . put ((byte) 0)
+      . put ((byte) Type . INT . ordinal ()) . put ((byte) AstWriter . RETURN);
+    for (int i = 0; i < n; i++)
+      b . put ((byte) AstWriter . UNARY) . put ((byte) 0);
+    b . put ((byte) AstWriter . INTEGER) . put ((byte) 0);
+    return java . util . Arrays . copyOf (b . array (), b . position ());
+  }
+
+  // what module prints when run with no input
+
+  private static String run (Module module, Options options) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream ();
+    Interpreter . run (module, InputSource . of (new byte [0]),
+                       new PrintStream (output, true), options);
+    return output . toString ();
+  }
+
+}
@@ -0,0 +1,25 @@
+// RuntimeError.java
+
+// RuntimeError is thrown when a running program does what the language
+// does not allow: uses an int as a list or a list as an int, takes the
+// head or tail of an empty list, divides by zero, calls a function that is
+// not defined or with the wrong number of arguments, or goes over a limit.
+// The output the program printed before it is written out first.  The
+// tree nodes, the virtual machine and JVM code check the values they
+// consume and throw it themselves; a failure reading the input becomes one
+// with that exception as the cause.
+
+public class RuntimeError extends ErrorMessage.Abort {
+
+  private static final long serialVersionUID = 1L;
+
+  public RuntimeError (String message) {
+    super (message);
+  }
+
+  public RuntimeError (String message, Throwable cause) {
+    super (message);
+    initCause (cause);
+  }
+
+}
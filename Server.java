@@ -0,0 +1,265 @@
+// Server.java
+
+// Server is a long-lived process that runs MicroPython programs sent to it
+// over a local TCP socket, so that a caller pays neither JVM start-up nor
+// warm-up per program.  Each program is parsed into a Module, or found in
+// a ProgramCache if it was sent before, and run by an Interpreter of its
+// own, with its own input and output, so jobs share nothing but the options
+// the server was started with and Modules, which running does not change
+// but for the JvmCode that lets a program sent again run warm.
+// Jobs run on a fixed pool of runner threads whose stacks can hold
+// maxCallDepth nested calls, as MicPyInt's does; connections are served by
+// threads of their own, which only move bytes and wait.  Errors end only
+// the job that made them: they are thrown as ErrorMessage.Aborts, which
+// the runner catches.
+//
+// A connection carries any number of requests, one after the other, until
+// the client closes it.  A request is the line
+//
+//   RUN <program length> <input length>
+//
+// followed by that many bytes of program source and then of input, each
+// at most MAX_LENGTH; the reply is the line OK <n>, or ERROR <n> if the job
+// failed, followed by the n bytes of its output, which end with the error
+// message if it failed.  A request the server cannot read gets an ERROR
+// reply, and its connection is closed.  The reports of single runs, of
+// -memo and of -report on -jit and -tiered, are not printed: the server's
+// stderr is shared by all jobs.
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Server {
+
+  public static final int PORT = 7077;
+  public static final int MAX_LENGTH = 64 << 20; // of a program or an input
+
+  static final String USAGE =
+    "USAGE: java Server [-port n] [-threads n] [interpreter options]";
+
+  protected Options options;
+  protected ProgramCache cache;
+  protected ServerSocket socket;
+  protected ExecutorService runners;            // run the jobs
+  protected ExecutorService connections;        // read requests, write replies
+  protected AtomicLong completed = new AtomicLong ();
+  protected AtomicLong failed = new AtomicLong ();
+
+  // the result of one job: its output, and whether it ran to the end
+
+  public static class Result {
+    public final boolean ok;
+    public final byte [] output;
+
+    public Result (boolean ok, byte [] output) {
+      this . ok = ok;
+      this . output = output;
+    }
+
+    public String toString () {
+      return new String (output, StandardCharsets . UTF_8);
+    }
+  }
+
+  public Server (Options options, int threads) {
+    this . options = options;
+    options . listing = false;
+    options . prompt = false;
+    options . runReports = false;
+    cache = new ProgramCache (options);
+    long stack = MicPyInt . stackSize (options);
+    runners = Executors . newFixedThreadPool (threads,
+      daemons ("MicPyInt-runner", stack));
+    connections = Executors . newCachedThreadPool (daemons ("MicPyInt-connection", 0));
+  }
+
+  private static ThreadFactory daemons (String name, long stack) {
+    AtomicLong count = new AtomicLong ();
+    return body -> {
+      Thread t = new Thread (null, body, name + "-" + count . incrementAndGet (), stack);
+      t . setDaemon (true);
+      return t;
+    };
+  }
+
+  // binds to port on the loopback interface; 0 picks a free port
+
+  public void listen (int port) throws IOException {
+    socket = new ServerSocket ();
+    socket . bind (new InetSocketAddress (InetAddress . getLoopbackAddress (), port), 1024);
+  }
+
+  public int port () {
+    return socket . getLocalPort ();
+  }
+
+  // accepts connections until the server is closed
+
+  public void serve () {
+    while (!socket . isClosed ()) {
+      Socket client;
+      try {
+        client = socket . accept ();
+      }
+      catch (IOException e) {
+        if (socket . isClosed ())
+          return;
+        System . err . println ("server: " + e . getMessage ());
+        continue;
+      }
+      connections . execute (() -> connection (client));
+    }
+  }
+
+  public void close () {
+    try {
+      if (socket != null)
+        socket . close ();
+    }
+    catch (IOException e) {
+      // nothing more to release
+    }
+    connections . shutdownNow ();
+    runners . shutdownNow ();
+  }
+
+  public long completed () { return completed . get (); }
+
+  public long failed () { return failed . get (); }
+
+  // serves the requests of one connection until the client closes it, or
+  // sends one the server cannot read
+
+  private void connection (Socket client) {
+    try (Socket s = client) {
+      s . setTcpNoDelay (true);
+      InputStream in = new BufferedInputStream (s . getInputStream ());
+      OutputStream out = new BufferedOutputStream (s . getOutputStream ());
+      String header;
+      while ((header = line (in)) != null) {
+        String [] fields = header . split (" ");
+        int sourceLength = -1, inputLength = -1;
+        if (fields . length == 3 && fields [0] . equals ("RUN")) {
+          sourceLength = length (fields [1]);
+          inputLength = length (fields [2]);
+        }
+        if (sourceLength < 0 || inputLength < 0) {
+          reply (out, new Result (false, bytes ("***** Error: BAD REQUEST " + header + " *****\n")));
+          return;
+        }
+        byte [] source = in . readNBytes (sourceLength);
+        byte [] input = in . readNBytes (inputLength);
+        reply (out, submit (source, input));
+      }
+    }
+    catch (IOException e) {
+      // the client went away or sent garbage; only its connection ends
+    }
+  }
+
+  // the length field of a request, or -1 if it is not a number from 0 to
+  // MAX_LENGTH
+
+  private static int length (String field) {
+    try {
+      int n = Integer . parseInt (field);
+      return (n >= 0 && n <= MAX_LENGTH) ? n : -1;
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static void reply (OutputStream out, Result result) throws IOException {
+    out . write (bytes ((result . ok ? "OK " : "ERROR ") + result . output . length + "\n"));
+    out . write (result . output);
+    out . flush ();
+  }
+
+  // the next line of in, without its newline, or null at the end of in
+
+  static String line (InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder ();
+    int c;
+    while ((c = in . read ()) != '\n') {
+      if (c < 0)
+        return sb . length () == 0 ? null : sb . toString ();
+      sb . append ((char) c);
+    }
+    return sb . toString ();
+  }
+
+  static byte [] bytes (String s) {
+    return s . getBytes (StandardCharsets . UTF_8);
+  }
+
+  // runs a job on a runner thread and waits for its result
+
+  public Result submit (byte [] source, byte [] input) {
+    try {
+      return runners . submit (() -> run (source, input)) . get ();
+    }
+    catch (ExecutionException e) {
+      return new Result (false, bytes ("***** Error: " + e . getCause () + " *****\n"));
+    }
+    catch (InterruptedException e) {
+      Thread . currentThread () . interrupt ();
+      return new Result (false, bytes ("***** Error: SERVER STOPPING *****\n"));
+    }
+  }
+
+  // parses source and runs it on input, on the calling thread
+
+  public Result run (byte [] source, byte [] input) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+    Output output = new BufferedOutput (bytes);
+    boolean ok = false;
+    String error = null;
+    try {
+      Module module = cache . module (source);
+      new Interpreter (module, InputSource . of (input), output, options) . run ();
+      ok = true;
+    }
+    catch (ErrorMessage.Abort e) {
+      error = e . getMessage ();
+    }
+    catch (IOException | RuntimeException | StackOverflowError e) {
+      error = e . toString ();
+    }
+    finally {
+      output . flush ();
+    }
+    completed . incrementAndGet ();
+    if (!ok) {
+      failed . incrementAndGet ();
+      byte [] message = bytes ("***** Error: " + error + " *****\n");
+      bytes . write (message, 0, message . length);
+    }
+    return new Result (ok, bytes . toByteArray ());
+  }
+
+  public static void main (String args []) throws IOException {
+    int port = PORT;
+    int threads = Runtime . getRuntime () . availableProcessors ();
+    int arg = 0;
+    for (; arg + 1 < args . length; arg += 2)
+      if (args [arg] . equals ("-port"))
+        port = Integer . parseInt (args [arg + 1]);
+      else if (args [arg] . equals ("-threads"))
+        threads = Integer . parseInt (args [arg + 1]);
+      else
+        break;
+    Options options = new Options ();
+    if (options . parse (args, arg) != args . length)
+      ErrorMessage . print (USAGE);
+    Server server = new Server (options, threads);
+    server . listen (port);
+    System . err . println ("server: listening on port " + server . port ()
+                            + " with " + threads + " runners");
+    server . serve ();
+  }
+
+}
@@ -0,0 +1,106 @@
+// ServerBenchmark.java
+
+// This program measures a Server under load.  It starts one in this JVM on
+// a free port, warms it up with warmup jobs over one connection, and then
+// has many clients, each on a thread and a connection of its own, send it
+// the same program and input jobs times over, all at once.  It reports the throughput in programs per
+// second and the median, 99th percentile and worst latency of a job, from
+// sending its request to reading the whole of its reply.
+
+// usage: java ServerBenchmark [-clients n] [-jobs n] [-warmup n] [-threads n]
+//                             [interpreter options] program.py [input]
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ServerBenchmark {
+
+  public static void main (String args []) throws Exception {
+    int clients = 1000;
+    int jobs = 10;
+    int warmup = 1000;
+    int threads = Runtime . getRuntime () . availableProcessors ();
+    int arg = 0;
+    for (; arg + 1 < args . length; arg += 2)
+      if (args [arg] . equals ("-clients"))
+        clients = Integer . parseInt (args [arg + 1]);
+      else if (args [arg] . equals ("-jobs"))
+        jobs = Integer . parseInt (args [arg + 1]);
+      else if (args [arg] . equals ("-warmup"))
+        warmup = Integer . parseInt (args [arg + 1]);
+      else if (args [arg] . equals ("-threads"))
+        threads = Integer . parseInt (args [arg + 1]);
+      else
+        break;
+    Options options = new Options ();
+    arg = options . parse (args, arg);
+    if (arg >= args . length) {
+      System . err . println ("USAGE: java ServerBenchmark [-clients n] [-jobs n] [-warmup n]"
+                              + " [-threads n] [interpreter options] program.py [input]");
+      System . exit (2);
+    }
+    byte [] source = Files . readAllBytes (Paths . get (args [arg]));
+    byte [] input = arg + 1 < args . length
+                    ? Files . readAllBytes (Paths . get (args [arg + 1])) : new byte [0];
+
+    Server server = new Server (options, threads);
+    server . listen (0);
+    Thread acceptor = new Thread (server :: serve, "MicPyInt-acceptor");
+    acceptor . setDaemon (true);
+    acceptor . start ();
+
+    try (Client client = new Client ("localhost", server . port ())) {
+      Server.Result result = client . run (source, input);
+      if (!result . ok) {
+        System . out . print (result);
+        System . exit (1);
+      }
+      for (int i = 1; i < warmup; i++)
+        client . run (source, input);
+    }
+
+    long [] latencies = new long [clients * jobs];
+    CountDownLatch ready = new CountDownLatch (clients);
+    CountDownLatch go = new CountDownLatch (1);
+    ExecutorService pool = Executors . newFixedThreadPool (clients);
+    List<Future<?>> done = new ArrayList<Future<?>> ();
+    for (int c = 0; c < clients; c++) {
+      final int first = c * jobs, count = jobs;
+      done . add (pool . submit (() -> {
+        try (Client client = new Client ("localhost", server . port ())) {
+          ready . countDown ();
+          go . await ();
+          for (int j = 0; j < count; j++) {
+            long start = System . nanoTime ();
+            client . run (source, input);
+            latencies [first + j] = System . nanoTime () - start;
+          }
+        }
+        return null;
+      }));
+    }
+    ready . await ();
+    long failedBefore = server . failed ();
+    long start = System . nanoTime ();
+    go . countDown ();
+    for (Future<?> f : done)
+      f . get ();
+    long elapsed = System . nanoTime () - start;
+    pool . shutdown ();
+    server . close ();
+
+    Arrays . sort (latencies);
+    int n = latencies . length;
+    System . out . println (args [arg] + ": " + clients + " clients x " + jobs + " jobs, "
+                            + threads + " runners");
+    System . out . printf ("  %d programs in %.1f ms: %.0f programs/s, %d failed%n",
+                           n, elapsed / 1e6, n / (elapsed / 1e9),
+                           server . failed () - failedBefore);
+    System . out . printf ("  latency: p50 %.2f ms  p99 %.2f ms  max %.2f ms%n",
+                           latencies [n / 2] / 1e6, latencies [(int) (n * 0.99)] / 1e6,
+                           latencies [n - 1] / 1e6);
+  }
+
+}
@@ -0,0 +1,23 @@
+// SourceError.java
+
+// SourceError is an error in the text of a program, found before any of it
+// runs: a LexicalError or a ParseError.  It is at line, counted from 1, and
+// column, counted from 0, of the source.  Its message ends with them, for a
+// host that shows no listing; error is the message without them, for one
+// that points at the column in the listing, as MicPyInt does.
+
+public abstract class SourceError extends ErrorMessage.Abort {
+
+  private static final long serialVersionUID = 1L;
+
+  public final int line, column;
+  public final String error;
+
+  protected SourceError (int line, int column, String error) {
+    super (error + " AT LINE " + line + ", COLUMN " + column);
+    this . line = line;
+    this . column = column;
+    this . error = error;
+  }
+
+}
@@ -0,0 +1,65 @@
+// Specialization.java
+
+// Specialization is a class to name the states of the self-specializing
+// nodes: those whose operands have no static type, such as the head of a
+// list, which may be an int or a list.  Such a node starts UNINITIALIZED,
+// and its first run picks the version for the values it sees: INT, which
+// takes the operand unboxed through executeInt, or GENERIC, which takes any
+// value.  An INT node whose guard fails, because executeInt threw an
+// UnexpectedResult, rewrites itself to GENERIC for good and goes on with
+// the value the guard caught.  The parsed Module is shared by all its runs,
+// so the state moves one way only, and every version is correct for any
+// value; two runs racing on a node at worst both make the same move.
+
+public final class Specialization {
+
+  public static final byte UNINITIALIZED = 0;
+  public static final byte INT = 1;
+  public static final byte GENERIC = 2;
+
+  // the state for a node whose first value is value
+
+  public static byte of (Object value) {
+    return (value instanceof Integer) ? INT : GENERIC;
+  }
+
+  // reports a value used as an int that is not one
+
+  public static int notInt (Store store, Object value) {
+    Interpreter . error (store, "int EXPECTED, NOT " + kind (value));
+    return 0;
+  }
+
+  public static int notInt (Interpreter interpreter, Object value) {
+    interpreter . error ("int EXPECTED, NOT " + kind (value));
+    return 0;
+  }
+
+  private static String kind (Object value) {
+    return (value instanceof PersistentList) ? "list" : String . valueOf (value);
+  }
+
+  // value as a list, or a RuntimeError if it is not one
+
+  public static PersistentList list (Store store, Object value) {
+    if (value instanceof PersistentList)
+      return (PersistentList) value;
+    Interpreter . error (store, "list EXPECTED, NOT " + value);
+    return null;
+  }
+
+  public static PersistentList notList (Interpreter interpreter, Object value) {
+    interpreter . error ("list EXPECTED, NOT " + value);
+    return null;
+  }
+
+  // value as a list with a first element, for op, its head or tail
+
+  public static PersistentList nonEmpty (Store store, Object value, String op) {
+    PersistentList list = list (store, value);
+    if (list . isEmpty ())
+      Interpreter . error (store, op + " of empty list");
+    return list;
+  }
+
+}
@@ -1,23 +1,136 @@
 // Store.java
 
 // Store is a class to model the memory store of PL/0 programs.
+// Variables live in a frame array indexed by the slot numbers the
+// resolution pass assigns to each formal parameter and local; the
+// name-to-slot table is kept for debugging and printing only.
+// Slots whose inferred type is int hold their value unboxed in ints.
+// The Store built for a function definition is part of the parsed Module
+// and never changes once resolved; each call runs in an activation Store
+// that the Interpreter running the program hands out from its pools.
+// A slot with no static type holds an Object in frame, or, once the
+// assignments to it have specialized to ints, UNBOXED in frame and the int
+// in ints.
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
 
 public class Store {
-  protected TreeMap<String,Object> map ;
+  public static final Object UNBOXED = new Object(); // the value is in ints
+  protected TreeMap<String,Integer> slots;
   protected TreeMap<String,Store> funcmap;
+  public Object[] frame;
+  public int[] ints;
+  protected Type[] types;
+  public Type returnType;
   public Statement func_body;
   public Vector<String> arg_list;
   public String id;
+  public int index;             // position of the definition in its Module
+  public boolean pure;          // no print or input, calls only pure functions
+  public boolean memoizable;    // pure, with int parameters only
+  public Interpreter interpreter; // the run an activation belongs to
+  public Store next;            // activation left by a TailCall
   public Store(){
-    map = new TreeMap<String,Object>();
+    slots = new TreeMap<String,Integer>();
     funcmap = new TreeMap<String,Store>();
+    frame = new Object[0];
+    ints = new int[0];
+    types = new Type[0];
     arg_list = new Vector<String>();
   }
-  public void update(String s, Object o){map.put(s,o);}
-  public Object get(String s){return map.get(s);}
+  // a store for one function, sharing the program's function table
+  public Store(Store program){
+    this();
+    funcmap = program.funcmap;
+  }
+  // an activation record of the function defined by def
+  private Store(Store def, Interpreter interpreter, int localCount){
+    slots = def.slots;
+    types = def.types;
+    returnType = def.returnType;
+    funcmap = def.funcmap;
+    func_body = def.func_body;
+    arg_list = def.arg_list;
+    id = def.id;
+    index = def.index;
+    pure = def.pure;
+    memoizable = def.memoizable;
+    this.interpreter = interpreter;
+    frame = new Object[localCount];
+    ints = new int[localCount];
+  }
+  // a fresh activation record of this function for interpreter
+  public Store activation(Interpreter interpreter){
+    return new Store(this, interpreter, slots.size());
+  }
+  public int slot(String s){
+    Integer i = slots.get(s);
+    if(i == null){
+      i = slots.size();
+      slots.put(s,i);
+      frame = Arrays.copyOf(frame, i + 1);
+      ints = Arrays.copyOf(ints, i + 1);
+      types = Arrays.copyOf(types, i + 1);
+    }
+    return i;
+  }
+  // type inference: a slot's type is null until something is assigned to
+  // it, and becomes ANY once it is assigned values of two different types
+  public void declare(String s, Type t){
+    int i = slot(s);
+    types[i] = t;
+  }
+  public boolean assign(int i, Type t){
+    if(t == null || types[i] == t || types[i] == Type.ANY)
+      return false;
+    types[i] = (types[i] == null)? t : Type.ANY;
+    return true;
+  }
+  public void settleTypes(){
+    for(int i = 0; i < types.length; i++)
+      if(types[i] == null)
+        types[i] = Type.ANY;
+  }
+  public Type type(int i){return types[i];}
+  public int localCount(){return slots.size();}
+  public String[] names(){
+    String[] names = new String[slots.size()];
+    for(Map.Entry<String,Integer> e : slots.entrySet())
+      names[e.getValue()] = e.getKey();
+    return names;
+  }
+  public void update(int i, Object o){frame[i] = o;}
+  public Object get(int i){return frame[i];}
+  public void updateInt(int i, int v){ints[i] = v;}
+  public int getInt(int i){return ints[i];}
+  public void updateUnboxed(int i, int v){ints[i] = v; frame[i] = UNBOXED;}
+  // the value of a slot with no static type, boxed if it is held unboxed
+  public Object value(int i){
+    Object o = frame[i];
+    return (o == UNBOXED)? (Object)ints[i] : o;
+  }
+  public void update(String s, Object o){
+    int i = slot(s);
+    if(types[i] == Type.INT)
+      ints[i] = (int)o;
+    else
+      frame[i] = o;
+  }
+  public Object get(String s){
+    Integer i = slots.get(s);
+    if(i == null)
+      return null;
+    return (types[i] == Type.INT)? (Object)ints[i] : value(i);
+  }
   public void update_f(String f, Store s){funcmap.put(f,s);}
   public Store get_f(String f){return funcmap.get(f);}
+  public String toString(){
+    StringBuilder sb = new StringBuilder();
+    for(Map.Entry<String,Integer> e : slots.entrySet())
+      sb.append(e.getKey()).append(" = ").append(get(e.getKey())).append("\n");
+    return sb.toString();
+  }
 }
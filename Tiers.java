@@ -0,0 +1,102 @@
+// Tiers.java
+
+// Tiers is a class to move the code of one run from the tree interpreter
+// to JVM code as it gets hot, so that short runs do not pay for compiling
+// and long ones do not stay interpreted.  Each function counts its calls
+// and is handed to JvmCompiler, with the functions it calls, on its hot-th
+// call; from the next call on it runs as JVM code.  A while loop that has
+// run osr iterations in one go, in main or any other function still
+// interpreted, is compiled on its own and the rest of the loop runs as JVM
+// code on the same locals, which is on-stack replacement.  Each compile is
+// tried once; what stays interpreted, and why, is logged along with what
+// moves up a tier if the options ask for a report.  The counts and the
+// code are the Module's JvmCode, so a later run of the same Module goes on
+// where the earlier ones left off.
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.*;
+
+public class Tiers {
+
+  protected Interpreter interpreter;
+  protected Module module;
+  protected JvmCode code;
+  protected Set<Store> skip;                    // functions not to compile
+  protected int hot;                            // calls before compiling
+  public final int osr;                         // iterations before replacing a loop
+  protected boolean log;
+  protected boolean counted;                    // the run has a step limit
+
+  public Tiers (Interpreter interpreter, Module module, JvmCode code,
+                Set<Store> skip, Options options) {
+    this . interpreter = interpreter;
+    this . module = module;
+    this . code = code;
+    this . skip = skip;
+    hot = options . hot;
+    osr = options . osr;
+    log = options . report && options . runReports;
+    counted = options . steps > 0;
+  }
+
+  // counts a call of def by the interpreter; true if def has just been
+  // compiled, and this call is to run the JVM code
+
+  public boolean called (Store def) {
+    if (code . calls . incrementAndGet (def . index) != hot)
+      return false;
+    JvmCompiler jvm = new JvmCompiler (module, counted);
+    code . install (jvm . compile (skip, Collections . singleton (def)));
+    boolean compiled = interpreter . isCompiled (def);
+    if (log)
+      System . err . println ("tier: " + def . id
+        + (compiled ? " compiled after " + hot + " calls" + with (jvm, def . id)
+                    : " stays interpreted: " + jvm . reasons () . get (def . id)));
+    return compiled;
+  }
+
+  // Runs the rest of loop, which store's function is running, as JVM code;
+  // false if it does not compile, and the interpreter goes on with it.
+
+  public boolean loop (WhileStatement loop, Store store) {
+    MethodHandle handle;
+    synchronized (code) {
+      if (code . loops . containsKey (loop))
+        handle = code . loops . get (loop);
+      else {
+        Store def = module . functions () . get (store . index);
+        JvmCompiler jvm = new JvmCompiler (module, counted);
+        handle = jvm . loop (skip, def, loop);
+        code . loops . put (loop, handle);
+        if (handle != null)
+          code . install (jvm . handles ());
+        if (log)
+          System . err . println ("tier: loop in " + def . id
+            + (handle != null ? " replaced after " + osr + " iterations" + with (jvm, null)
+                              : " stays interpreted: "
+                                + jvm . reasons () . get (def . id + " loop")));
+      }
+    }
+    if (handle == null)
+      return false;
+    try {
+      handle . invokeExact (interpreter, store . ints);
+    }
+    catch (RuntimeException | Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new UndeclaredThrowableException (e);
+    }
+    return true;
+  }
+
+  private static String with (JvmCompiler jvm, String id) {
+    TreeSet<String> others = new TreeSet<String> (jvm . compiled ());
+    if (id != null)
+      others . remove (id);
+    return others . isEmpty () ? "" : ", with " + others;
+  }
+
+}
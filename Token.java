@@ -57,8 +57,7 @@ public class Token {
       case ID :                return "(identifier, " + lexeme + ") ";
       case INTEGER :           return "(integer, " + lexeme + ") ";
       default : 
-	ErrorMessage . print (0, "Unrecognized token");
-        return null;
+	throw new IllegalStateException ("Unrecognized token " + symbol);
     }
   }
 
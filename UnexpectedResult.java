@@ -0,0 +1,20 @@
+// UnexpectedResult.java
+
+// UnexpectedResult is thrown by an expression's executeInt when its value,
+// expected to be an int, turns out not to be one.  It carries the value, so
+// that the node that expected an int can go on with it in its generic
+// version without evaluating the expression a second time.  It is part of
+// normal evaluation, so it has no stack trace.
+
+public final class UnexpectedResult extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  public final Object value;
+
+  public UnexpectedResult (Object value) {
+    super (null, null, false, false);
+    this . value = value;
+  }
+
+}
@@ -0,0 +1,375 @@
+// VirtualMachine.java
+
+// VirtualMachine is a class to execute CompiledFunctions.  The operand stack
+// and the local slots of every active frame share one value stack, held as
+// two parallel arrays: ints live unboxed in ival, lists live in rval and an
+// int slot has a null rval.  Calls push a frame record instead of recursing
+// in Java, and the arguments left on the stack by the caller become the
+// first locals of the callee.  Every int is held unboxed, so a value with
+// a null rval is an int and any other is a list.  The register
+// instructions work on the ival of frame slots, by their number from the
+// frame's base, and never touch rval: the slots they name hold ints only.
+
+import java.util.*;
+
+public class VirtualMachine {
+
+  protected int [] ival = new int[256];
+  protected Object [] rval = new Object[256];
+
+  protected CompiledFunction [] frameFunction = new CompiledFunction[16];
+  protected int [] framePc = new int[16];
+  protected int [] frameBase = new int[16];
+  protected Memo.Key [] frameKey = new Memo.Key[16];  // memo key of a callee
+
+  protected Interpreter interpreter;
+  protected int maxCallDepth;
+  protected Output output;
+  protected Memo memo;
+
+  // a machine doing the input, output and depth checking of interpreter's run
+
+  public VirtualMachine (Interpreter interpreter) {
+    this . interpreter = interpreter;
+    this . maxCallDepth = interpreter . options . maxCallDepth;
+    this . output = interpreter . output;
+    this . memo = interpreter . memo;
+  }
+
+  // Runs main and returns its result, boxed.
+
+  public Object run (CompiledFunction main) {
+    ensureStack(main.frameSize + main.maxStack);
+    int [] iv = ival;
+    Object [] rv = rval;
+    CompiledFunction fn = main;
+    int [] code = fn.code;
+    int pc = 0, bp = 0, sp = fn.frameSize, depth = 0;
+    constants(fn, bp);
+    long steps = interpreter.steps;     // the run's steps, counted down here
+
+    while (true) {
+      switch (code[pc++]) {
+
+        case Opcode.PUSH_INT :
+          iv[sp] = fn.intPool[code[pc++]];
+          rv[sp++] = null;
+          break;
+
+        case Opcode.LOAD : {
+          int s = bp + code[pc++];
+          iv[sp] = iv[s];
+          rv[sp++] = rv[s];
+          break;
+        }
+
+        case Opcode.STORE : {
+          int s = bp + code[pc++];
+          sp--;
+          iv[s] = iv[sp];
+          rv[s] = rv[sp];
+          break;
+        }
+
+        case Opcode.MOVE : {
+          int t = bp + code[pc], s = bp + code[pc + 1];
+          iv[t] = iv[s];
+          rv[t] = rv[s];
+          pc += 2;
+          break;
+        }
+
+        case Opcode.NEW_LIST :
+          rv[sp++] = new PersistentList();
+          break;
+
+        case Opcode.INPUT :
+          iv[sp] = interpreter.readInt();
+          rv[sp++] = null;
+          break;
+
+        case Opcode.NEG :
+          iv[sp - 1] = -iv[sp - 1];
+          break;
+
+        case Opcode.NOT :
+          iv[sp - 1] = (iv[sp - 1] == 0) ? 1 : 0;
+          break;
+
+        // an int element leaves the list unboxed, whatever its buffer
+        case Opcode.HEAD : {
+          PersistentList list = (PersistentList) rv[sp - 1];
+          if (list.isEmpty())
+            interpreter.error("head of empty list");
+          if (list.headIsInt()) {
+            iv[sp - 1] = list.headInt();
+            rv[sp - 1] = null;
+          }
+          else {
+            Object head = list.head();
+            if (head instanceof Integer) {
+              iv[sp - 1] = (Integer) head;
+              rv[sp - 1] = null;
+            }
+            else
+              rv[sp - 1] = head;
+          }
+          break;
+        }
+
+        case Opcode.TAIL : {
+          PersistentList list = (PersistentList) rv[sp - 1];
+          if (list.isEmpty())
+            interpreter.error("tail of empty list");
+          rv[sp - 1] = list.tail();
+          break;
+        }
+
+        case Opcode.NULL :
+          iv[sp - 1] = ((PersistentList) rv[sp - 1]).isEmpty() ? 1 : 0;
+          rv[sp - 1] = null;
+          break;
+
+        case Opcode.ADD : sp--; iv[sp - 1] = iv[sp - 1] + iv[sp]; break;
+        case Opcode.SUB : sp--; iv[sp - 1] = iv[sp - 1] - iv[sp]; break;
+        case Opcode.MUL : sp--; iv[sp - 1] = iv[sp - 1] * iv[sp]; break;
+        case Opcode.DIV :
+          sp--;
+          if (iv[sp] == 0)
+            interpreter.error("division by zero");
+          iv[sp - 1] = iv[sp - 1] / iv[sp];
+          break;
+
+        case Opcode.EQ :
+        case Opcode.NE : {
+          sp--;
+          boolean equal = (rv[sp - 1] == null && rv[sp] == null)
+                            ? iv[sp - 1] == iv[sp] : rv[sp - 1] == rv[sp];
+          iv[sp - 1] = (equal == (code[pc - 1] == Opcode.EQ)) ? 1 : 0;
+          rv[sp - 1] = null;
+          break;
+        }
+
+        case Opcode.LT : sp--; iv[sp - 1] = (iv[sp - 1] <  iv[sp]) ? 1 : 0; break;
+        case Opcode.LE : sp--; iv[sp - 1] = (iv[sp - 1] <= iv[sp]) ? 1 : 0; break;
+        case Opcode.GT : sp--; iv[sp - 1] = (iv[sp - 1] >  iv[sp]) ? 1 : 0; break;
+        case Opcode.GE : sp--; iv[sp - 1] = (iv[sp - 1] >= iv[sp]) ? 1 : 0; break;
+
+        case Opcode.CONS :
+          sp--;
+          interpreter.allocate(((PersistentList) rv[sp - 1]).consCells());
+          if (rv[sp] == null)
+            rv[sp - 1] = ((PersistentList) rv[sp - 1]).consInt(iv[sp]);
+          else
+            rv[sp - 1] = ((PersistentList) rv[sp - 1]).cons(rv[sp]);
+          break;
+
+        case Opcode.CHECK_INT :
+          if (rv[sp - 1] != null)
+            Specialization.notInt(interpreter, rv[sp - 1]);
+          break;
+
+        case Opcode.CHECK_LIST :
+          if (rv[sp - 1] == null)
+            Specialization.notList(interpreter, iv[sp - 1]);
+          break;
+
+        case Opcode.JUMP :
+          pc = code[pc];
+          break;
+
+        case Opcode.LOOP :
+          if (--steps < 0)
+            throw interpreter.overSteps();
+          pc = code[pc];
+          break;
+
+        case Opcode.JUMP_IF_0 :
+          pc = (iv[--sp] == 0) ? code[pc] : pc + 1;
+          break;
+
+        case Opcode.JUMP_IF_NOT_0 :
+          pc = (iv[--sp] != 0) ? code[pc] : pc + 1;
+          break;
+
+        case Opcode.JUMP_IF_EMPTY :
+          pc = ((PersistentList) rv[--sp]).isEmpty() ? code[pc] : pc + 1;
+          break;
+
+        case Opcode.JUMP_IF_NOT_EMPTY :
+          pc = ((PersistentList) rv[--sp]).isEmpty() ? pc + 1 : code[pc];
+          break;
+
+        case Opcode.POP :
+          sp--;
+          break;
+
+        case Opcode.PRINT :
+          sp--;
+          if (rv[sp] == null)
+            output.println(iv[sp]);
+          else
+            output.println(rv[sp]);
+          break;
+
+        case Opcode.CALL : {
+          CompiledFunction callee = fn.functions[code[pc++]];
+          int base = sp - code[pc++];
+          Memo.Key key = null;
+          if (callee.memoizable && memo != null) {
+            key = new Memo.Key(callee.index, Arrays.copyOfRange(iv, base, sp));
+            Object value = memo.get(key);
+            if (value != null) {
+              sp = base;
+              if (value instanceof Integer) {
+                iv[sp] = (Integer) value;
+                rv[sp++] = null;
+              }
+              else
+                rv[sp++] = value;
+              break;
+            }
+          }
+          if (--steps < 0)
+            throw interpreter.overSteps();
+          if (depth == maxCallDepth)
+            interpreter.error("call depth limit " + maxCallDepth
+                               + " exceeded in " + callee.id);
+          if (depth == frameFunction.length) {
+            frameFunction = Arrays.copyOf(frameFunction, 2 * depth);
+            framePc = Arrays.copyOf(framePc, 2 * depth);
+            frameBase = Arrays.copyOf(frameBase, 2 * depth);
+            frameKey = Arrays.copyOf(frameKey, 2 * depth);
+          }
+          frameFunction[depth] = fn;
+          framePc[depth] = pc;
+          frameBase[depth] = bp;
+          frameKey[depth] = key;
+          depth++;
+          if (base + callee.frameSize + callee.maxStack > iv.length) {
+            ensureStack(base + callee.frameSize + callee.maxStack);
+            iv = ival;
+            rv = rval;
+          }
+          for (int s = sp; s < base + callee.localCount; s++) {
+            iv[s] = 0;
+            rv[s] = null;
+          }
+          fn = callee;
+          code = fn.code;
+          pc = 0;
+          bp = base;
+          sp = base + fn.frameSize;
+          if (fn.constants.length > 0)
+            constants(fn, bp);
+          break;
+        }
+
+        // a self call in tail position reuses the current frame
+        case Opcode.TAIL_CALL : {
+          int n = code[pc];
+          if (--steps < 0)
+            throw interpreter.overSteps();
+          sp -= n;
+          System.arraycopy(iv, sp, iv, bp, n);
+          System.arraycopy(rv, sp, rv, bp, n);
+          for (int s = bp + n; s < bp + fn.localCount; s++) {
+            iv[s] = 0;
+            rv[s] = null;
+          }
+          sp = bp + fn.frameSize;
+          pc = 0;
+          break;
+        }
+
+        case Opcode.RETURN : {
+          sp--;
+          if (depth == 0)
+            return getValue(iv, rv, sp);
+          iv[bp] = iv[sp];
+          rv[bp] = rv[sp];
+          sp = bp + 1;
+          depth--;
+          if (frameKey[depth] != null) {
+            memo.put(frameKey[depth], getValue(iv, rv, bp));
+            frameKey[depth] = null;
+          }
+          fn = frameFunction[depth];
+          code = fn.code;
+          pc = framePc[depth];
+          bp = frameBase[depth];
+          break;
+        }
+
+        case Opcode.ADD_R :
+          iv[bp + code[pc]] = iv[bp + code[pc + 1]] + iv[bp + code[pc + 2]];
+          pc += 3;
+          break;
+
+        case Opcode.SUB_R :
+          iv[bp + code[pc]] = iv[bp + code[pc + 1]] - iv[bp + code[pc + 2]];
+          pc += 3;
+          break;
+
+        case Opcode.MUL_R :
+          iv[bp + code[pc]] = iv[bp + code[pc + 1]] * iv[bp + code[pc + 2]];
+          pc += 3;
+          break;
+
+        case Opcode.DIV_R :
+          if (iv[bp + code[pc + 2]] == 0)
+            interpreter.error("division by zero");
+          iv[bp + code[pc]] = iv[bp + code[pc + 1]] / iv[bp + code[pc + 2]];
+          pc += 3;
+          break;
+
+        case Opcode.MOVE_R :
+          iv[bp + code[pc]] = iv[bp + code[pc + 1]];
+          pc += 2;
+          break;
+
+        case Opcode.JUMP_LT :
+          pc = (iv[bp + code[pc]] < iv[bp + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+          break;
+
+        case Opcode.JUMP_LE :
+          pc = (iv[bp + code[pc]] <= iv[bp + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+          break;
+
+        case Opcode.JUMP_EQ :
+          pc = (iv[bp + code[pc]] == iv[bp + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+          break;
+
+        case Opcode.JUMP_NE :
+          pc = (iv[bp + code[pc]] != iv[bp + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+          break;
+
+        default :
+          interpreter.error("Illegal opcode " + code[pc - 1] + " in " + fn.id);
+      }
+    }
+  }
+
+  // fills in the constant registers of a frame of fn at bp
+  private void constants (CompiledFunction fn, int bp) {
+    int [] constants = fn.constants;
+    int s = bp + fn.frameSize - constants.length;
+    for (int i = 0; i < constants.length; i++)
+      ival[s + i] = constants[i];
+  }
+
+  private void ensureStack (int size) {
+    if (size > ival.length) {
+      int n = Math.max(size, 2 * ival.length);
+      ival = Arrays.copyOf(ival, n);
+      rval = Arrays.copyOf(rval, n);
+    }
+  }
+
+  // boxing happens only where a value enters or leaves a list or the machine
+
+  private static Object getValue (int [] iv, Object [] rv, int s) {
+    return (rv[s] == null) ? (Object) iv[s] : rv[s];
+  }
+
+}
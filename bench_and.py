@@ -0,0 +1,33 @@
+# bench_and.py
+
+# This program times and/or tests whose right operand is costly: a call
+# that walks a 1000-element list.  The left operand decides all but one in
+# a thousand of the 10^6 tests, so the right one must not be evaluated.
+
+from MicroPythonListClass import MicroPythonList
+
+def build (n : int, l : MicroPythonList) -> MicroPythonList :
+  while n > 0 :
+    l = l . cons (n)
+    n = n - 1;
+  return l
+
+def length (l : MicroPythonList) -> int :
+  n = 0
+  while not l . null () :
+    n = n + 1
+    l = l . tail ();
+  return n
+
+def main () -> int :
+  l = build (1000, MicroPythonList ())
+  i = 0
+  hits = 0
+  while i < 1000000 :
+    if i - i // 1000 * 1000 == 0 and length (l) == 1000 :
+      hits = hits + 1;
+    if i - i // 1000 * 1000 != 0 or length (l) != 1000 :
+      hits = hits + 1;
+    i = i + 1;
+  print (hits)
+  return 0
@@ -0,0 +1,32 @@
+# bench_any.py
+
+# This program times operations whose operands have no static type: the
+# head of a list may be an int or a list, so x below is typed ANY, and
+# the ==, cons and print that use it are decided at run time.  The list
+# it walks holds ints only.
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  l = MicroPythonList ()
+  i = 0
+  while i < 1000 :
+    l = l . cons (i * 7919 // 13)
+    i = i + 1;
+  n = 0
+  hits = 0
+  while n < 2000 :
+    m = MicroPythonList ()
+    k = l
+    y = 0
+    while not k . null () :
+      x = k . head ()
+      if x == y :
+        hits = hits + 1;
+      m = m . cons (x)
+      y = x
+      k = k . tail ();
+    n = n + 1;
+  print (x)
+  print (hits)
+  return 0
@@ -0,0 +1,16 @@
+# bench_fib.py
+
+# This program computes fib (30) by naive double recursion: about 2.7 * 10^6
+# calls without -memo, and 31 with it, since fib is pure.
+
+from MicroPythonListClass import MicroPythonList
+
+def fib (n : int) -> int :
+  r = n
+  if n > 1 :
+    r = fib (n - 1) + fib (n - 2);
+  return r
+
+def main () -> int :
+  print (fib (30))
+  return 0
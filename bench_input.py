@@ -0,0 +1,17 @@
+# bench_input.py
+
+# This program sums the ints of its input: a count n, then n ints.  Run it
+# on a large input file, for example
+#   (echo 1000000; seq 1000000) > ints.txt
+#   java Benchmark -batch -input ints.txt bench_input.py
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  n = int (input ())
+  s = 0
+  while n > 0 :
+    s = s + int (input ())
+    n = n - 1;
+  print (s)
+  return 0
@@ -0,0 +1,22 @@
+# bench_int.py
+
+# This program times an integer-only loop whose values leave the small
+# Integer cache, with a function call per iteration.  It should allocate
+# next to nothing while it runs.
+
+from MicroPythonListClass import MicroPythonList
+
+def mix (h : int, x : int) -> int :
+  h = h * 31 + x
+  if h < 0 :
+    h = 0 - h;
+  return h // 3 + 1000
+
+def main () -> int :
+  i = 0
+  h = 7
+  while i < 10000000 :
+    h = mix (h, i)
+    i = i + 1;
+  print (h)
+  return 0
@@ -0,0 +1,19 @@
+# bench_list.py
+
+# This program times building a list of 200000 elements with cons and
+# walking it with head and tail, which should take linear time.
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  l = MicroPythonList ()
+  i = 0
+  while i < 200000 :
+    l = l . cons (i)
+    i = i + 1;
+  s = 0
+  while not l . null () :
+    s = s + l . head ()
+    l = l . tail ();
+  print (s)
+  return 0
@@ -0,0 +1,19 @@
+# bench_list10m.py
+
+# This program builds a list of 10000000 ints and walks it, to measure the
+# memory an int list needs.
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  l = MicroPythonList ()
+  i = 0
+  while i < 10000000 :
+    l = l . cons (i)
+    i = i + 1;
+  s = 0
+  while not l . null () :
+    s = s + l . head ()
+    l = l . tail ();
+  print (s)
+  return 0
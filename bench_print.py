@@ -0,0 +1,13 @@
+# bench_print.py
+
+# This program prints 1000000 ints, to time program output when it goes
+# to a pipe or a file.
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  i = 0
+  while i < 1000000 :
+    print (i * 7 - 3000000)
+    i = i + 1;
+  return 0
@@ -0,0 +1,21 @@
+# bench_tail.py
+
+# This program times 10000 self-recursive calls of depth 1000 whose
+# recursive call is in tail position.
+
+from MicroPythonListClass import MicroPythonList
+
+def count (n : int, acc : int) -> int :
+  r = acc
+  if n > 0 :
+    r = count (n - 1, acc + n);
+  return r
+
+def main () -> int :
+  i = 0
+  s = 0
+  while i < 10000 :
+    s = s + count (1000, i)
+    i = i + 1;
+  print (s)
+  return 0
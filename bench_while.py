@@ -0,0 +1,15 @@
+# bench_while.py
+
+# This program times a while loop of 100000000 iterations, which must run
+# in constant Java stack space.
+
+from MicroPythonListClass import MicroPythonList
+
+def main () -> int :
+  i = 0
+  s = 0
+  while i < 100000000 :
+    s = s + 1
+    i = i + 1;
+  print (s)
+  return 0
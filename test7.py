@@ -0,0 +1,17 @@
+from MicroPythonListClass import MicroPythonList
+
+def last (l : MicroPythonList) -> int :
+  t = l . tail ()
+  if t . null () :
+    s = l . head ();
+  else :
+    s = last (t);
+  return s
+
+def main () -> int :
+  l = MicroPythonList ()
+  l = l . cons (MicroPythonList ())
+  l = l . cons (int (input ()))
+  l = l . cons (5)
+  print (last (l))
+  return 0
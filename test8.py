@@ -0,0 +1,15 @@
+from MicroPythonListClass import MicroPythonList
+
+def first (l : MicroPythonList) -> int :
+  x = l . head ()
+  return x
+
+def main () -> int :
+  l = MicroPythonList ()
+  l = l . cons (MicroPythonList ())
+  l = l . cons (int (input ()))
+  y = first (l . tail ())
+  print (y)
+  x = first (l)
+  print (y + x)
+  return 0